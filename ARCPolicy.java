@@ -0,0 +1,157 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache eviction (Megiddo and Modha). Cached entries are split between
+ * <tt>T1</tt>, entries seen once recently, and <tt>T2</tt>, entries seen at least twice. Each
+ * has a ghost list, <tt>B1</tt> and <tt>B2</tt>, remembering the keys it recently evicted. A
+ * miss on a ghost key shows which side evicted too eagerly, and moves the target size of
+ * <tt>T1</tt> towards it, so the policy keeps tuning itself between recency and frequency.
+ * <p>
+ * The paper counts its sizes in entries. With a <tt>Weigher</tt> the capacity is a weight
+ * instead, which may be far more than the number of entries the cache holds, so the ghost
+ * lists and the target are bounded by the number of cached entries, and by the capacity
+ * only when that is smaller.
+ */
+public class ARCPolicy<T> implements EvictionPolicy<T> {
+	final private static int T1 = 0;
+	final private static int T2 = 1;
+	final private static int NOT_A_GHOST = 0;
+	final private static int IN_B1 = 1;
+	final private static int IN_B2 = 2;
+	final private NodeList<T> t1; //from most to least recently used
+	final private NodeList<T> t2;
+	final private LinkedHashSet<T> b1; //ghost keys, not in the cache, from least to most recently evicted
+	final private LinkedHashSet<T> b2;
+	private long capacity;
+	private long target; //the size T1 should have, called p in the paper
+	private int ghost; //where the key being added was remembered
+
+	public ARCPolicy () {
+		t1 = new NodeList<T>();
+		t2 = new NodeList<T>();
+		b1 = new LinkedHashSet<T>();
+		b2 = new LinkedHashSet<T>();
+		capacity = 1;
+		target = 0;
+		ghost = NOT_A_GHOST;
+	}
+
+	/**
+	 * Bounds the ghost lists and the target size of <tt>T1</tt>.
+	 * @param capacity the capacity of the cache
+	 */
+	public void setCapacity (long capacity) {
+		this.capacity = capacity;
+		target = Math.min(target, capacity);
+	}
+
+	/**
+	 * Moves the entry to the most recently used end of <tt>T2</tt>, since it has now been
+	 * seen at least twice.
+	 * @param node the entry that was hit
+	 */
+	public void recordHit (Node<T> node) {
+		(node.queue == T1 ? t1 : t2).remove(node);
+		node.queue = T2;
+		t2.addFirst(node);
+	}
+
+	/**
+	 * Adapts the target size of <tt>T1</tt> if the key was a ghost, and otherwise trims the
+	 * ghost lists so they remember no more than the paper allows.
+	 * @param key the key that missed
+	 */
+	public void prepareAdd (T key) {
+		final long entries = Math.min(capacity, t1.size() + t2.size()); //what the paper calls c
+		if(b1.contains(key)) {
+			target = Math.min(entries, target + Math.max(b2.size() / b1.size(), 1)); //T1 was too small
+			b1.remove(key);
+			ghost = IN_B1;
+			return;
+		}
+		if(b2.contains(key)) {
+			target = Math.max(0, target - Math.max(b1.size() / b2.size(), 1)); //T2 was too small
+			b2.remove(key);
+			ghost = IN_B2;
+			return;
+		}
+		ghost = NOT_A_GHOST;
+		while(!b1.isEmpty() && t1.size() + b1.size() >= entries) {
+			removeOldest(b1);
+		}
+		while(!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() >= 2 * entries) {
+			removeOldest(b2);
+		}
+	}
+
+	/**
+	 * Adds the entry to <tt>T2</tt> if its key was a ghost, and to <tt>T1</tt> otherwise.
+	 * @param node the new entry
+	 */
+	public void add (Node<T> node) {
+		if(ghost == NOT_A_GHOST) {
+			node.queue = T1;
+			t1.addFirst(node);
+		}
+		else {
+			node.queue = T2;
+			t2.addFirst(node);
+		}
+		ghost = NOT_A_GHOST;
+	}
+
+	/**
+	 * Takes the least recently used entry of <tt>T1</tt> while it is over its target size
+	 * and of <tt>T2</tt> otherwise, and remembers its key in the matching ghost list.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	public Node<T> evict () {
+		if(!t1.isEmpty() && (t1.size() > target || (ghost == IN_B2 && t1.size() == target) || t2.isEmpty())) {
+			final Node<T> victim = t1.pollLast();
+			b1.add(victim.key);
+			return victim;
+		}
+		final Node<T> victim = t2.pollLast();
+		if(victim != null) {
+			b2.add(victim.key);
+		}
+		return victim;
+	}
+
+	/**
+	 * Takes the entry out of its list, without remembering its key.
+	 * @param node the entry that left
+	 */
+	public void remove (Node<T> node) {
+		(node.queue == T1 ? t1 : t2).remove(node);
+	}
+
+	/**
+	 * Iterates over <tt>T2</tt> and then <tt>T1</tt>, each from the most to the least
+	 * recently used entry.
+	 */
+	public Iterator<Node<T>> iterator () {
+		return NodeList.concat(t2, t1);
+	}
+
+	/**
+	 * Returns the number of keys remembered in the ghost lists.
+	 * @return the sizes of <tt>B1</tt> and <tt>B2</tt> added up
+	 */
+	int getGhostCount () {
+		return b1.size() + b2.size();
+	}
+
+	/**
+	 * Forgets the least recently evicted key of a ghost list.
+	 * @param ghosts The ghost list
+	 */
+	private void removeOldest(LinkedHashSet<T> ghosts) {
+		final Iterator<T> oldest = ghosts.iterator();
+		if(oldest.hasNext()) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+}
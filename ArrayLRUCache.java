@@ -0,0 +1,175 @@
+import java.util.Objects;
+
+/**
+ * An implementation of <tt>Cache</tt> that uses a least-recently-used (LRU) eviction
+ * policy and keeps its entries in an arena instead of linked nodes. Keys, values and
+ * hashes live in parallel arrays sized to the capacity, the recency list is a chain of
+ * <tt>int</tt> slot indices in <tt>before</tt>/<tt>after</tt>, and the index is an
+ * open-addressing table of slot numbers. There is no per-entry object at all, and an
+ * evicted slot is reused by the entry that replaces it, so a full cache allocates nothing
+ * on either hits or misses beyond what the provider returns.
+ */
+public class ArrayLRUCache<T, U> implements Cache<T, U> {
+	final private static int NIL = -1;
+	final private DataProvider<T, U> provider;
+	final private int capacity;
+	final private Object[] keys;
+	final private Object[] values;
+	final private int[] hashes;
+	final private int[] before;
+	final private int[] after;
+	final private int[] table; //slot + 1 for each occupied bucket, 0 for an empty one
+	final private int mask;
+	private int size;
+	private int timesMissed;
+	private int front;
+	private int back;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public ArrayLRUCache (DataProvider<T, U> provider, int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.provider = provider;
+		this.capacity = capacity;
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		hashes = new int[capacity];
+		before = new int[capacity];
+		after = new int[capacity];
+		table = new int[Integer.highestOneBit(capacity) << 2]; //at most half full, keeps probe chains short
+		mask = table.length - 1;
+		size = 0;
+		timesMissed = 0;
+		front = NIL;
+		back = NIL;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	@SuppressWarnings("unchecked")
+	public U get (T key) {
+		final int hash = spread(key);
+		final int bucket = find(key, hash);
+		if(table[bucket] != 0) {
+			final int slot = table[bucket] - 1;
+			if(slot != front) {
+				unlink(slot);
+				linkFront(slot);
+			}
+			return (U) values[slot]; //hit, moved to the front
+		}
+		final U value = provider.get(key);
+		final int slot;
+		if(size == capacity) {
+			slot = back; //reuse the least recently used slot
+			unlink(slot);
+			removeFromTable(slot);
+		}
+		else {
+			slot = size++;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		hashes[slot] = hash;
+		table[find(key, hash)] = slot + 1; //find again, removing the victim may have shifted buckets
+		linkFront(slot);
+		timesMissed++;
+		return value;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return timesMissed;
+	}
+
+	/**
+	 * Finds the bucket holding the specified key, or the empty bucket where it would go.
+	 * @param key The key to look up
+	 * @param hash The spread hash of the key
+	 * @return the bucket index
+	 */
+	private int find(T key, int hash) {
+		int bucket = hash & mask;
+		while(table[bucket] != 0) {
+			final int slot = table[bucket] - 1;
+			if(hashes[slot] == hash && Objects.equals(keys[slot], key)) {
+				break; //compare the cached hash first so most mismatches skip equals
+			}
+			bucket = (bucket + 1) & mask; //linear probing
+		}
+		return bucket;
+	}
+
+	/**
+	 * Removes the entry in the specified slot from the index, shifting later entries of its
+	 * probe chain back so that no tombstones are needed.
+	 * @param slot The slot whose entry is being removed
+	 */
+	private void removeFromTable(int slot) {
+		int hole = hashes[slot] & mask;
+		while(table[hole] != slot + 1) {
+			hole = (hole + 1) & mask;
+		}
+		int next = hole;
+		while(true) {
+			next = (next + 1) & mask;
+			if(table[next] == 0) {
+				break;
+			}
+			final int home = hashes[table[next] - 1] & mask;
+			//move the entry into the hole unless its home bucket lies cyclically in (hole, next]
+			final boolean staysPut = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+			if(!staysPut) {
+				table[hole] = table[next];
+				hole = next;
+			}
+		}
+		table[hole] = 0;
+	}
+
+	/**
+	 * Mixes the bits of a key's hash code so that keys with similar hash codes, like small
+	 * <tt>Integer</tt>s, land far apart in the table.
+	 * @param key The key
+	 * @return the spread hash
+	 */
+	private static int spread(Object key) {
+		final int h = (key == null ? 0 : key.hashCode()) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Adds the specified slot to the front of the LRU list.
+	 * @param slot The slot to add
+	 */
+	private void linkFront(int slot) {
+		after[slot] = front;
+		before[slot] = NIL;
+		if(front != NIL) before[front] = slot;
+		front = slot;
+		if(back == NIL) back = slot;
+	}
+
+	/**
+	 * Removes the specified slot from the LRU list.
+	 * @param slot The slot to remove
+	 */
+	private void unlink(int slot) {
+		final int newBefore = before[slot];
+		final int newAfter = after[slot];
+		if(newAfter != NIL) before[newAfter] = newBefore;
+		else back = newBefore;
+		if(newBefore != NIL) after[newBefore] = newAfter;
+		else front = newAfter;
+	}
+}
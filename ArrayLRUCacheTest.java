@@ -0,0 +1,80 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Code to test an <tt>ArrayLRUCache</tt> implementation.
+ */
+public class ArrayLRUCacheTest {
+	private Provider provider;
+	private static class Provider implements DataProvider<Object,String> {
+		public int fetches = 0;
+		public String get(Object key) {
+			fetches++;
+			return "" + key;
+		}
+	}
+	/**
+	 * A key type whose instances all collide, to force long probe chains.
+	 */
+	private static class Colliding {
+		final private int id;
+		public Colliding(int id) {
+			this.id = id;
+		}
+		public int hashCode() {
+			return 42;
+		}
+		public boolean equals(Object o) {
+			return o instanceof Colliding && ((Colliding) o).id == id;
+		}
+		public String toString() {
+			return "c" + id;
+		}
+	}
+
+	/**
+	 * Same walk as <tt>CacheTest.cacheProvidingIsCorrect</tt>.
+	 */
+	@Test
+	public void cacheProvidingIsCorrect() {
+		final Cache<Object,String> cache = new ArrayLRUCache<Object,String>(provider, 3);
+		assertEquals("1", cache.get(1));
+		assertEquals("2", cache.get(2));
+		assertEquals("3", cache.get(3));
+		assertEquals(3, cache.getNumMisses());
+		assertEquals("4", cache.get(4)); //get rid of 1 for 4
+		assertEquals("2", cache.get(2));
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("5", cache.get(5)); //get rid of 3 for 5
+		assertEquals("2", cache.get(2));
+		assertEquals("5", cache.get(5));
+		assertEquals("4", cache.get(4));
+		assertEquals(5, cache.getNumMisses());
+		assertEquals("3", cache.get(3)); //3 was evicted
+		assertEquals(6, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that evicting from a chain of colliding keys keeps the rest reachable.
+	 */
+	@Test
+	public void collidingKeysSurviveEviction() {
+		final Cache<Object,String> cache = new ArrayLRUCache<Object,String>(provider, 4);
+		for(int i = 0; i < 100; i++) {
+			assertEquals("c" + i, cache.get(new Colliding(i)));
+		}
+		for(int i = 96; i < 100; i++) {
+			assertEquals("c" + i, cache.get(new Colliding(i))); //the last four are still cached
+		}
+		assertEquals(100, cache.getNumMisses());
+		assertEquals(null + "", cache.get(null)); //null keys are allowed, get rid of 96
+		cache.get(new Colliding(96));
+		assertEquals(102, provider.fetches);
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
@@ -0,0 +1,10 @@
+/**
+ * A cache that associates keys with values and hands them out as futures.
+ */
+interface AsyncCache<T, U> extends AsyncDataProvider<T, U> {
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	int getNumMisses ();
+}
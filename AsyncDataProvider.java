@@ -0,0 +1,13 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A data provider that associates keys with values and loads them asynchronously.
+ */
+interface AsyncDataProvider<T, U> {
+	/**
+	 * Starts loading the value associated with the specified key.
+	 * @param key the key
+	 * @return a future that completes with the value associated with the key
+	 */
+	CompletableFuture<U> getAsync (T key);
+}
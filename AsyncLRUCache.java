@@ -0,0 +1,80 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An implementation of <tt>AsyncCache</tt> that uses a least-recently-used (LRU)
+ * eviction policy. The LRU list holds the futures themselves, so a key that is still
+ * loading is already cached: every request for it gets the same in-flight future, and
+ * a hit hands back the stored future without allocating anything. Nothing here ever
+ * blocks, which makes it safe to call from event-loop threads.
+ * <p>
+ * A load that fails is dropped from the cache once its future completes, so the next
+ * request tries again. Callers share the returned futures and must not complete them.
+ */
+public class AsyncLRUCache<T, U> implements AsyncCache<T, U> {
+	final private LRUCache<T, CompletableFuture<U>> cache;
+	final private AsyncDataProvider<T, U> provider;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public AsyncLRUCache (AsyncDataProvider<T, U> provider, int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.provider = provider;
+		cache = new LRUCache<T, CompletableFuture<U>>(provider::getAsync, capacity);
+	}
+
+	/**
+	 * Returns a future for the value associated with the specified key. On a hit this is
+	 * the cached future, which is already complete unless the key is still loading.
+	 * @param key the key
+	 * @return a future that completes with the value associated with the key
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<U> getAsync (T key) {
+		final CompletableFuture<U> future;
+		synchronized(cache) {
+			final Object hit = cache.getIfPresent(key);
+			if(hit != LRUCache.MISS) {
+				return (CompletableFuture<U>) hit; //the lookup already told the eviction policy
+			}
+			future = load(key);
+			cache.addLoaded(key, future); //cache the future right away so later requests share it
+		}
+		future.whenComplete((value, error) -> {
+			if(error != null) {
+				synchronized(cache) {
+					cache.remove(key, future); //don't keep serving a failure
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		synchronized(cache) {
+			return cache.getNumMisses();
+		}
+	}
+
+	/**
+	 * Asks the provider to start loading the specified key. A provider that throws instead
+	 * of returning a failed future is treated as if it had returned one.
+	 * @param key The key to load
+	 * @return the future for the load
+	 */
+	private CompletableFuture<U> load(T key) {
+		try {
+			return provider.getAsync(key);
+		}
+		catch(RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+}
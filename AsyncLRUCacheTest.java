@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Code to test an <tt>AsyncLRUCache</tt> implementation.
+ */
+public class AsyncLRUCacheTest {
+	private Provider provider;
+	private AsyncLRUCache<Integer,String> cache;
+	/**
+	 * Hands out futures that stay pending until the test completes them.
+	 */
+	private static class Provider implements AsyncDataProvider<Integer,String> {
+		final public List<CompletableFuture<String>> pending = new ArrayList<CompletableFuture<String>>();
+		public CompletableFuture<String> getAsync(Integer key) {
+			final CompletableFuture<String> future = new CompletableFuture<String>();
+			pending.add(future);
+			return future;
+		}
+	}
+
+	/**
+	 * Requests for a key that is still loading should share the in-flight future.
+	 */
+	@Test
+	public void inFlightLoadIsShared() {
+		final CompletableFuture<String> first = cache.getAsync(1);
+		final CompletableFuture<String> second = cache.getAsync(1);
+		assertSame(first, second);
+		assertFalse(first.isDone());
+		assertEquals(1, provider.pending.size());
+		assertEquals(1, cache.getNumMisses());
+		provider.pending.get(0).complete("1");
+		assertEquals("1", second.join());
+	}
+
+	/**
+	 * A hit on a loaded key should return the same completed future.
+	 */
+	@Test
+	public void hitReturnsCompletedFuture() {
+		final CompletableFuture<String> first = cache.getAsync(1);
+		provider.pending.get(0).complete("1");
+		final CompletableFuture<String> hit = cache.getAsync(1);
+		assertSame(first, hit);
+		assertTrue(hit.isDone());
+		assertEquals(1, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that the least recently used future is the one evicted.
+	 */
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+		for(int i = 0; i < 3; i++) {
+			cache.getAsync(i);
+		}
+		cache.getAsync(0); //0 is now most recently used
+		cache.getAsync(3); //get rid of 1 for 3
+		assertEquals(4, cache.getNumMisses());
+		cache.getAsync(0);
+		cache.getAsync(2);
+		assertEquals(4, cache.getNumMisses());
+		cache.getAsync(1);
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	/**
+	 * A failed load should not stay cached.
+	 */
+	@Test
+	public void failedLoadIsRetried() {
+		final CompletableFuture<String> first = cache.getAsync(1);
+		provider.pending.get(0).completeExceptionally(new IllegalStateException("backend down"));
+		assertTrue(first.isCompletedExceptionally());
+		final CompletableFuture<String> second = cache.getAsync(1);
+		assertNotSame(first, second);
+		assertEquals(2, cache.getNumMisses());
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+		cache = new AsyncLRUCache<Integer,String>(provider, 3);
+	}
+}
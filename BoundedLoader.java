@@ -0,0 +1,210 @@
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A <tt>DataProvider</tt> that sits between a cache and the real provider and limits how
+ * many loads reach it at once, so a burst of misses after a cold start or a mass eviction
+ * cannot overload the backend. Callers beyond the limit wait in a bounded queue; once the
+ * queue is full, more callers are turned away at once with a <tt>LoadRejectedException</tt>.
+ * Each load also has a deadline, covering both the wait for a turn and the load itself.
+ * <p>
+ * Loads run on the specified executor, so a caller can give up at its deadline while the
+ * load carries on; its turn is only given back when the provider answers, so the limit
+ * holds even for loads nobody waits for any more. A load that had not started when its
+ * caller gave up is cancelled and its turn given back then, so an executor that drops
+ * tasks without a word cannot use the turns up. On Java 21 and later a virtual-thread
+ * executor keeps the waiting cheap. With <tt>setServeStale</tt>, a rejected load tells an
+ * <tt>LRUCache</tt> it may hand back an expired value it kept with
+ * <tt>setStaleRetention</tt> instead of failing.
+ */
+public class BoundedLoader<T, U> implements DataProvider<T, U> {
+	final private DataProvider<T, U> provider;
+	final private Executor executor;
+	final private Semaphore permits;
+	final private int maxInFlight;
+	final private int maxWaiting;
+	final private long timeoutNanos;
+	final private AtomicInteger waiting;
+	final private LongAdder rejected;
+	private volatile boolean serveStale;
+
+	/**
+	 * @param provider the real provider
+	 * @param executor runs the loads
+	 * @param maxInFlight the most loads to run at once
+	 * @param maxWaiting the most callers to queue up behind them
+	 * @param timeout how long a caller waits for its value, queue included
+	 * @param unit the unit of the timeout
+	 */
+	public BoundedLoader (DataProvider<T, U> provider, Executor executor, int maxInFlight, int maxWaiting, long timeout, TimeUnit unit) {
+		if(maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		if(maxWaiting < 0) {
+			throw new IllegalArgumentException("maxWaiting must not be negative");
+		}
+		this.provider = provider;
+		this.executor = executor;
+		permits = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+		this.maxWaiting = maxWaiting;
+		timeoutNanos = unit.toNanos(timeout);
+		waiting = new AtomicInteger();
+		rejected = new LongAdder();
+		serveStale = false;
+	}
+
+	/**
+	 * Returns the value the provider has for the specified key, waiting for a turn first if
+	 * too many loads are running.
+	 * @param key the key
+	 * @return the value associated with the key
+	 * @throws LoadRejectedException if the queue is full or the deadline passes
+	 */
+	public U get (T key) {
+		return load(() -> provider.get(key));
+	}
+
+	/**
+	 * Loads a batch of keys from the provider as one load.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 * @throws LoadRejectedException if the queue is full or the deadline passes
+	 */
+	public Map<T, U> getAll (Collection<T> keys) {
+		return load(() -> provider.getAll(keys));
+	}
+
+	/**
+	 * Lets caches hand back a stale value when a load is rejected.
+	 * @param serveStale true to allow stale values
+	 */
+	public void setServeStale (boolean serveStale) {
+		this.serveStale = serveStale;
+	}
+
+	/**
+	 * Returns the number of loads that were turned away or timed out.
+	 * @return the number of rejected loads since the object's instantiation.
+	 */
+	public long getRejectedCount () {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the number of loads the provider is working on.
+	 * @return the number of loads in flight
+	 */
+	public int getInFlight () {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	/**
+	 * Waits for a turn, runs a load on the executor and waits for its result, all before
+	 * the deadline.
+	 * @param call The load
+	 * @return the loaded value
+	 */
+	private <V> V load(Callable<V> call) {
+		final long deadline = System.nanoTime() + timeoutNanos;
+		acquire(deadline);
+		final AtomicBoolean claimed = new AtomicBoolean(); //set by whichever of the task and the caller gives the turn back
+		final FutureTask<V> task = new FutureTask<V>(() -> {
+			if(!claimed.compareAndSet(false, true)) {
+				throw new CancellationException(); //the caller gave up before the load started
+			}
+			try {
+				return call.call();
+			}
+			finally {
+				permits.release(); //only once the provider has answered
+			}
+		});
+		try {
+			executor.execute(task);
+		}
+		catch(RejectedExecutionException e) {
+			giveUp(task, claimed);
+			throw reject("the executor rejected the load");
+		}
+		try {
+			return task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		catch(TimeoutException e) {
+			giveUp(task, claimed);
+			throw reject("the load did not finish before its deadline");
+		}
+		catch(InterruptedException e) {
+			giveUp(task, claimed);
+			Thread.currentThread().interrupt();
+			throw reject("interrupted while waiting for the load");
+		}
+		catch(ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause); //DataProvider cannot throw checked exceptions
+		}
+	}
+
+	/**
+	 * Cancels a load nobody waits for any more, and gives its turn back unless it already
+	 * started, in which case it gives the turn back itself when the provider answers.
+	 * @param task The load
+	 * @param claimed Whether the task or the caller has taken on giving the turn back
+	 */
+	private void giveUp(FutureTask<?> task, AtomicBoolean claimed) {
+		task.cancel(false);
+		if(claimed.compareAndSet(false, true)) {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Takes a turn to load, queueing up if there is none free and the queue has room.
+	 * @param deadline When to give up waiting
+	 */
+	private void acquire(long deadline) {
+		if(permits.tryAcquire()) {
+			return;
+		}
+		if(waiting.incrementAndGet() > maxWaiting) {
+			waiting.decrementAndGet();
+			throw reject("too many loads are waiting");
+		}
+		try {
+			if(!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				throw reject("no turn to load came up before the deadline");
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw reject("interrupted while waiting for a turn to load");
+		}
+		finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts a rejected load and builds the exception for it.
+	 * @param message What went wrong
+	 * @return the exception to throw
+	 */
+	private LoadRejectedException reject(String message) {
+		rejected.increment();
+		return new LoadRejectedException(message, serveStale);
+	}
+}
@@ -0,0 +1,195 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Code to test a <tt>BoundedLoader</tt> implementation.
+ */
+public class BoundedLoaderTest {
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	/**
+	 * Blocks every call until released, and keeps track of how many calls ran at once. Each
+	 * call hands out a permit of <tt>entered</tt> as it starts.
+	 */
+	private static class GatedProvider implements DataProvider<Integer,String> {
+		final public CountDownLatch release = new CountDownLatch(1);
+		final public Semaphore entered = new Semaphore(0);
+		final public AtomicInteger running = new AtomicInteger();
+		final public AtomicInteger mostRunning = new AtomicInteger();
+		public String get(Integer key) {
+			mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			entered.release();
+			try {
+				release.await();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			running.decrementAndGet();
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Tests that no more than the limit of loads reach the provider at once, and that the
+	 * callers queued behind them still get their values.
+	 */
+	@Test
+	public void limitsLoadsInFlight() throws InterruptedException {
+		final GatedProvider provider = new GatedProvider();
+		final BoundedLoader<Integer,String> loader = new BoundedLoader<Integer,String>(provider, executor, 2, 10, 5, TimeUnit.SECONDS);
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(loader, 100);
+		final String[] results = new String[8];
+		final Thread[] threads = new Thread[results.length];
+		for(int t = 0; t < threads.length; t++) {
+			final int key = t;
+			threads[t] = new Thread(() -> results[key] = cache.get(key));
+			threads[t].start();
+		}
+		assertTrue(provider.entered.tryAcquire(2, 5, TimeUnit.SECONDS));
+		awaitWaiting(threads); //the other six are queued up for a turn
+		assertEquals(2, loader.getInFlight());
+		provider.release.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		for(int t = 0; t < results.length; t++) {
+			assertEquals("" + t, results[t]);
+		}
+		assertEquals(2, provider.mostRunning.get());
+		assertEquals(0, loader.getRejectedCount());
+	}
+
+	/**
+	 * Tests that a caller is turned away at once when the queue is full, and that a caller
+	 * whose deadline passes gives up while the load carries on.
+	 */
+	@Test
+	public void rejectsWhenFullOrLate() throws InterruptedException {
+		final GatedProvider provider = new GatedProvider();
+		final BoundedLoader<Integer,String> loader = new BoundedLoader<Integer,String>(provider, executor, 1, 0, 200, TimeUnit.MILLISECONDS);
+		final Thread first = new Thread(() -> {
+			try {
+				loader.get(1);
+			}
+			catch(LoadRejectedException e) {
+				//its deadline passes while the provider is held up
+			}
+		});
+		first.start();
+		assertTrue(provider.entered.tryAcquire(5, TimeUnit.SECONDS)); //the first load holds the only turn
+		try {
+			loader.get(2);
+			fail("expected the full queue to turn the load away");
+		}
+		catch(LoadRejectedException e) {
+			assertFalse(e.isStaleAllowed());
+		}
+		first.join();
+		assertEquals(2, loader.getRejectedCount());
+		assertEquals(1, loader.getInFlight()); //the abandoned load still holds its turn
+		provider.release.countDown();
+		awaitNoneInFlight(loader); //the turn is given back on the executor's thread
+		assertEquals("3", loader.get(3));
+		assertEquals(1, provider.mostRunning.get());
+	}
+
+	/**
+	 * Tests that an <tt>LRUCache</tt> hands back its expired value whenever the loader is
+	 * busy and allows stale values, also once the wheel cleared the entry out, and drops it
+	 * once a reload succeeds.
+	 */
+	@Test
+	public void servesStaleWhenBusy() throws InterruptedException {
+		final AtomicLong time = new AtomicLong();
+		final AtomicInteger version = new AtomicInteger();
+		final GatedProvider gate = new GatedProvider();
+		final BoundedLoader<Integer,String> loader = new BoundedLoader<Integer,String>(key -> {
+			if(version.get() > 0) {
+				gate.get(key); //the backend is stuck from now on
+			}
+			return key + "v" + version.get();
+		}, executor, 1, 0, 100, TimeUnit.MILLISECONDS);
+		loader.setServeStale(true);
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(loader, 10);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.MINUTES), time::get);
+		cache.setStaleRetention(10);
+		assertEquals("1v0", cache.get(1));
+		version.set(1);
+		time.addAndGet(TimeUnit.MINUTES.toNanos(2));
+		assertEquals("1v0", cache.get(1)); //timed out, so the stale value is served
+		time.addAndGet(TimeUnit.HOURS.toNanos(1)); //the wheel has long cleared the entry out
+		assertEquals("1v0", cache.get(1)); //turned away at once, and served stale again
+		assertEquals("1v0", cache.getAll(Arrays.asList(1)).get(1));
+		try {
+			cache.get(2);
+			fail("nothing stale to serve for a key that was never cached");
+		}
+		catch(LoadRejectedException e) {
+			assertTrue(e.isStaleAllowed());
+		}
+		gate.release.countDown();
+		awaitNoneInFlight(loader);
+		assertEquals("1v1", cache.get(1));
+		version.set(2);
+		assertEquals("1v1", cache.get(1)); //a hit, the stale value is gone
+	}
+
+	/**
+	 * Tests that a load an executor drops without a word gives its turn back once its
+	 * caller gives up, so later loads are not locked out for good.
+	 */
+	@Test
+	public void droppedLoadGivesItsTurnBack() {
+		final BoundedLoader<Integer,String> loader = new BoundedLoader<Integer,String>(key -> "" + key, task -> {}, 1, 0, 20, TimeUnit.MILLISECONDS);
+		for(int i = 0; i < 3; i++) {
+			try {
+				loader.get(i);
+				fail("the load never runs, so its deadline has to pass");
+			}
+			catch(LoadRejectedException e) {
+				assertEquals(0, loader.getInFlight());
+			}
+		}
+		assertEquals(3, loader.getRejectedCount()); //timed out each time, never turned away for want of a turn
+	}
+
+	/**
+	 * Waits, up to a deadline, until every one of the threads is parked.
+	 * @param threads The threads
+	 */
+	private static void awaitWaiting(Thread[] threads) {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for(Thread thread : threads) {
+			while(thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+				assertTrue("a thread never started waiting", System.nanoTime() - deadline < 0);
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Waits, up to a deadline, until every load has given its turn back.
+	 * @param loader The loader
+	 */
+	private static void awaitNoneInFlight(BoundedLoader<Integer,String> loader) {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(loader.getInFlight() > 0) {
+			assertTrue("a turn was never given back", System.nanoTime() - deadline < 0);
+			Thread.yield();
+		}
+	}
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,250 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe implementation of <tt>Cache</tt> with least-recently-used (LRU) eviction
+ * whose hits take no lock. A hit only reads a <tt>ConcurrentHashMap</tt> and notes the entry
+ * in a small ring buffer; the buffers are striped by thread so readers rarely share one. The
+ * LRU list is only changed under a lock, by whichever thread finds a buffer full and wins a
+ * <tt>tryLock</tt>, or by a miss: it drains every buffer and moves the entries it finds to
+ * the front in one batch. Readers never wait for the lock.
+ * <p>
+ * The buffers are lossy. When a buffer is full and another thread is draining, the read is
+ * dropped, which only makes the recency order slightly less exact under heavy load. The
+ * capacity is always exact, since entries are only added under the lock. Misses are not
+ * single-flight: threads that miss on the same key at once may each call the provider, and
+ * the first value to be cached wins. The <tt>DataProvider</tt> must be safe to call from
+ * several threads at once.
+ */
+public class BufferedLRUCache<T, U> implements Cache<T, U> {
+	final private static int MAX_STRIPES = 64;
+	final private ConcurrentHashMap<T, Node<T, U>> cache;
+	final private DataProvider<T, U> provider;
+	final private int capacity;
+	final private ReadBuffer<T, U>[] buffers;
+	final private ReentrantLock evictionLock;
+	//the fields below are guarded by evictionLock
+	private int timesMissed;
+	private Node<T, U> front;
+	private Node<T, U> back;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferedLRUCache (DataProvider<T, U> provider, int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		cache = new ConcurrentHashMap<T, Node<T, U>>(capacity);
+		this.provider = provider;
+		this.capacity = capacity;
+		final int stripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+		buffers = (ReadBuffer<T, U>[]) new ReadBuffer<?, ?>[stripes];
+		for(int i = 0; i < stripes; i++) {
+			buffers[i] = new ReadBuffer<T, U>();
+		}
+		evictionLock = new ReentrantLock();
+		timesMissed = 0;
+		front = null;
+		back = null;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		final Node<T, U> hit = cache.get(key);
+		if(hit != null) {
+			afterRead(hit);
+			return hit.value;
+		}
+		final U value = provider.get(key); //without the lock, so hits carry on during the load
+		evictionLock.lock();
+		try {
+			drainBuffers();
+			final Node<T, U> raced = cache.get(key);
+			if(raced != null) {
+				addToFront(evict(raced)); //another thread loaded it first, keep its value
+				return raced.value;
+			}
+			timesMissed++;
+			if(cache.size() >= capacity) {
+				evictBack();
+			}
+			final Node<T, U> node = new Node<T, U>(key, value);
+			addToFront(node);
+			cache.put(key, node);
+			return value;
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		evictionLock.lock();
+		try {
+			return timesMissed;
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Records a hit in the calling thread's buffer, draining the buffers if it is full and
+	 * nobody else is draining them already.
+	 * @param node The entry that was read
+	 */
+	private void afterRead(Node<T, U> node) {
+		final ReadBuffer<T, U> buffer = buffers[stripe()];
+		if(buffer.offer(node)) {
+			return;
+		}
+		if(evictionLock.tryLock()) {
+			try {
+				drainBuffers();
+			}
+			finally {
+				evictionLock.unlock();
+			}
+			buffer.offer(node);
+		}
+		//otherwise another thread is draining and this read is dropped
+	}
+
+	/**
+	 * Moves every entry recorded in the buffers to the front of the LRU list, in the order
+	 * each buffer recorded them. Must hold the eviction lock.
+	 */
+	private void drainBuffers() {
+		for(ReadBuffer<T, U> buffer : buffers) {
+			Node<T, U> node;
+			while((node = buffer.poll()) != null) {
+				if(node.alive) {
+					addToFront(evict(node)); //entries evicted since the read are skipped
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the calling thread's buffer.
+	 * @return the stripe index
+	 */
+	private int stripe() {
+		final long id = Thread.currentThread().getId();
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (buffers.length - 1);
+	}
+
+	/**
+	 * Removes the least recently used entry. Must hold the eviction lock.
+	 */
+	private void evictBack() {
+		final Node<T, U> bck = back;
+		evict(bck);
+		bck.alive = false;
+		cache.remove(bck.key, bck);
+	}
+
+	/**
+	 * Adds the specified node to the front of the LinkedList.
+	 * @param x The node to add to the front of the list
+	 */
+	private void addToFront(Node<T, U> x) {
+		x.after = front;
+		x.before = null;
+		if(front != null) front.before = x;
+		front = x;
+		if(back == null) back = front;
+	}
+
+	/**
+	 * Removes the specified node from the LinkedList
+	 * @param x The node to remove from the list
+	 * @return The node that was removed
+	 */
+	private Node<T, U> evict(Node<T, U> x) {
+		final Node<T, U> newBefore = x.before;
+		final Node<T, U> newAfter = x.after;
+		if(newAfter != null) newAfter.before = newBefore;
+		else back = newBefore;
+		if(newBefore != null) newBefore.after = newAfter;
+		else front = newAfter;
+		return x;
+	}
+
+	/**
+	 * An entry. Key and value are final so readers see them without the lock; the links and
+	 * <tt>alive</tt> are guarded by the eviction lock.
+	 */
+	private static class Node<T, U> {
+		final public T key;
+		final public U value;
+		public boolean alive;
+		public Node<T, U> before;
+		public Node<T, U> after;
+		public Node(T key, U value) {
+			this.key = key;
+			this.value = value;
+			alive = true;
+		}
+	}
+
+	/**
+	 * A bounded ring buffer of reads. Any number of threads may offer; only the thread
+	 * holding the eviction lock polls.
+	 */
+	private static class ReadBuffer<T, U> {
+		final private static int SIZE = 16;
+		final private static int MASK = SIZE - 1;
+		final private AtomicReferenceArray<Node<T, U>> slots = new AtomicReferenceArray<Node<T, U>>(SIZE);
+		final private AtomicLong writeCounter = new AtomicLong();
+		private volatile long readCounter;
+
+		/**
+		 * Records a read unless the buffer is full or another thread claimed the slot first.
+		 * @param node The entry that was read
+		 * @return false if the buffer was full
+		 */
+		public boolean offer(Node<T, U> node) {
+			final long tail = writeCounter.get();
+			if(tail - readCounter >= SIZE) {
+				return false;
+			}
+			if(writeCounter.compareAndSet(tail, tail + 1)) {
+				slots.lazySet((int) (tail & MASK), node);
+			}
+			return true; //losing the race drops the read, which is fine for a recency hint
+		}
+
+		/**
+		 * Takes the oldest recorded read.
+		 * @return the entry, or null if the buffer is empty or its next slot is not filled in yet
+		 */
+		public Node<T, U> poll() {
+			final long head = readCounter;
+			if(head == writeCounter.get()) {
+				return null;
+			}
+			final int index = (int) (head & MASK);
+			final Node<T, U> node = slots.get(index);
+			if(node == null) {
+				return null; //claimed but not written yet, pick it up on the next drain
+			}
+			slots.lazySet(index, null);
+			readCounter = head + 1;
+			return node;
+		}
+	}
+}
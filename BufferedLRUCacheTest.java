@@ -0,0 +1,81 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Code to test a <tt>BufferedLRUCache</tt> implementation.
+ */
+public class BufferedLRUCacheTest {
+	private static final int NUM_THREADS = 8;
+	private static class Provider implements DataProvider<Integer,String> {
+		final private AtomicInteger fetches = new AtomicInteger();
+		public String get(Integer key) {
+			fetches.incrementAndGet();
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Tests the usual LRU order: reads are buffered, but drained before anything is evicted.
+	 */
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+		final Cache<Integer,String> cache = new BufferedLRUCache<Integer,String>(new Provider(), 3);
+		assertEquals("1", cache.get(1));
+		assertEquals("2", cache.get(2));
+		assertEquals("3", cache.get(3));
+		assertEquals("1", cache.get(1)); //1 is now most recently used
+		assertEquals("4", cache.get(4)); //get rid of 2 for 4
+		assertEquals("1", cache.get(1));
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("2", cache.get(2));
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	/**
+	 * With one thread no read is ever dropped, so the misses match <tt>LRUCache</tt> exactly,
+	 * including runs of hits longer than a read buffer.
+	 */
+	@Test
+	public void singleThreadMatchesLRUCache() {
+		final Cache<Integer,String> buffered = new BufferedLRUCache<Integer,String>(new Provider(), 100);
+		final Cache<Integer,String> exact = new LRUCache<Integer,String>(new Provider(), 100);
+		final Random random = new Random(42);
+		for(int i = 0; i < 100000; i++) {
+			final int key = random.nextInt(10) < 8 ? random.nextInt(80) : random.nextInt(1000);
+			assertEquals(exact.get(key), buffered.get(key));
+		}
+		assertEquals(exact.getNumMisses(), buffered.getNumMisses());
+	}
+
+	/**
+	 * Hammers the cache from several threads and checks that every value is correct and that
+	 * each miss is one fetch. A fetch that lost the race to another thread is not a miss.
+	 */
+	@Test
+	public void concurrentCallersSeeCorrectValues() throws InterruptedException {
+		final Provider provider = new Provider();
+		final Cache<Integer,String> cache = new BufferedLRUCache<Integer,String>(provider, 64);
+		final AtomicInteger wrong = new AtomicInteger();
+		final Thread[] threads = new Thread[NUM_THREADS];
+		for(int t = 0; t < NUM_THREADS; t++) {
+			final int seed = t;
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 20000; i++) {
+					final int key = (i * 31 + seed) % 200;
+					if(!("" + key).equals(cache.get(key))) {
+						wrong.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, wrong.get());
+		assertTrue(cache.getNumMisses() <= provider.fetches.get());
+		assertTrue(cache.getNumMisses() >= 200);
+	}
+}
@@ -1,3 +1,6 @@
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * CS 2103 2018 B-term (Whitehill)
  * A cache that associates keys with values.
@@ -8,4 +11,15 @@ interface Cache<T, U> extends DataProvider<T, U> {
 	 * @return the number of cache misses since the object's instantiation.
 	 */
 	int getNumMisses ();
+
+	/**
+	 * Returns the values associated with the specified keys, as if <tt>get</tt> had been
+	 * called for each one. Implementations should send all of the misses to the provider's
+	 * <tt>getAll</tt> in one batch. Each key that misses counts as one miss.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 */
+	default Map<T, U> getAll (Collection<T> keys) {
+		return DataProvider.super.getAll(keys);
+	}
 }
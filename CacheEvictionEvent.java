@@ -0,0 +1,19 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for each entry a cache evicts to make room, or drops because it expired.
+ */
+@Name("cache.Eviction")
+@Label("Cache Eviction")
+@Category("Cache")
+@Description("An entry removed from a cache by eviction or expiry")
+class CacheEvictionEvent extends jdk.jfr.Event {
+	@Label("Key")
+	String key;
+
+	@Label("Expired")
+	boolean expired;
+}
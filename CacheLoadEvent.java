@@ -0,0 +1,23 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for each call a cache makes to its <tt>DataProvider</tt>. Its duration is
+ * the time the provider took.
+ */
+@Name("cache.Load")
+@Label("Cache Load")
+@Category("Cache")
+@Description("A call to the DataProvider after a cache miss")
+class CacheLoadEvent extends jdk.jfr.Event {
+	@Label("Key")
+	String key;
+
+	@Label("Number of Keys")
+	int keys;
+
+	@Label("Failed")
+	boolean failed;
+}
@@ -0,0 +1,432 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a <tt>ConcurrentLRUCache</tt> to <tt>DistributedCache</tt> clients over TCP on the
+ * loopback interface. One thread runs an NIO selector over every connection and only reads
+ * requests and writes replies; the lookups run on worker threads, so a slow load does not
+ * hold up other clients. A worker hands its encoded reply back through a queue and wakes
+ * the selector up to write it. Misses are loaded by the cache, which loads a key once
+ * however many workers ask for it at the same time.
+ * <p>
+ * Clients may send several requests without waiting for the replies, and each request can
+ * carry many keys. A request is <tt>[int length][int id][int count]</tt> followed by
+ * <tt>count</tt> keys, each <tt>[int length][bytes]</tt>; it is answered with
+ * <tt>[int length][int id][int misses][int count]</tt> and the values in the same form,
+ * length -1 for null. Replies can come back in a different order than the requests, which
+ * clients match up by id. If the provider throws, the count is -1 and a UTF-8 message
+ * follows.
+ * <p>
+ * Run on its own, the server is a separate process serving string keys, with a stand-in
+ * provider that answers every key with itself, until it is killed:
+ * <pre>
+ * java -cp target/classes CacheServer PORT CAPACITY
+ * </pre>
+ */
+public class CacheServer<T, U> implements Closeable {
+	final static int MAX_FRAME = 64 << 20; //a bigger length means the stream is corrupt
+	final private static int ERROR = -1;
+	final private static int DEFAULT_WORKERS = 16; //loads mostly wait on the backend, so more than the processors
+	final private ConcurrentLRUCache<T, U> cache;
+	final private Serializer<T> keySerializer;
+	final private Serializer<U> valueSerializer;
+	final private Executor workers;
+	final private ExecutorService ownWorkers; //shut down on close, null if the workers were passed in
+	final private ConcurrentLinkedQueue<Reply> replies; //from the workers to the selector thread
+	final private Selector selector;
+	final private ServerSocketChannel server;
+	final private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Binds to the specified port on the loopback interface and starts serving, with a pool
+	 * of worker threads of its own.
+	 * @param cache the cache to serve
+	 * @param keySerializer turns bytes from clients back into keys
+	 * @param valueSerializer turns values into the bytes that are sent back, which must be thread-safe
+	 * @param port the port, 0 for any free one
+	 * @throws IOException if the port cannot be bound
+	 */
+	public CacheServer (ConcurrentLRUCache<T, U> cache, Serializer<T> keySerializer, Serializer<U> valueSerializer, int port) throws IOException {
+		this(cache, keySerializer, valueSerializer, port, null);
+	}
+
+	/**
+	 * Binds to the specified port on the loopback interface and starts serving.
+	 * @param cache the cache to serve
+	 * @param keySerializer turns bytes from clients back into keys
+	 * @param valueSerializer turns values into the bytes that are sent back, which must be thread-safe
+	 * @param port the port, 0 for any free one
+	 * @param workers runs the lookups, or null for a pool of the server's own that it shuts
+	 * down when it is closed
+	 * @throws IOException if the port cannot be bound
+	 */
+	public CacheServer (ConcurrentLRUCache<T, U> cache, Serializer<T> keySerializer, Serializer<U> valueSerializer, int port, Executor workers) throws IOException {
+		this.cache = cache;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		ownWorkers = workers == null ? Executors.newFixedThreadPool(DEFAULT_WORKERS, runnable -> {
+			final Thread worker = new Thread(runnable, "cache-server-worker");
+			worker.setDaemon(true);
+			return worker;
+		}) : null;
+		this.workers = workers == null ? ownWorkers : workers;
+		replies = new ConcurrentLinkedQueue<Reply>();
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(this::serve, "cache-server-" + getAddress().getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts a server in this process and serves until the process is killed.
+	 * @param args the port and the capacity
+	 * @throws IOException if the port cannot be bound
+	 * @throws InterruptedException if the main thread is interrupted while serving
+	 */
+	public static void main (String[] args) throws IOException, InterruptedException {
+		if(args.length != 2) {
+			usage("expected a port and a capacity");
+		}
+		final int port;
+		final int capacity;
+		try {
+			port = Integer.parseInt(args[0]);
+			capacity = Integer.parseInt(args[1]);
+		}
+		catch(NumberFormatException e) {
+			usage("not a number: " + e.getMessage());
+			return;
+		}
+		if(port < 0 || port > 65535 || capacity < 1) {
+			usage("the port must be 0 to 65535 and the capacity at least 1");
+		}
+		final ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<String, String>(key -> key, capacity);
+		final CacheServer<String, String> server = new CacheServer<String, String>(cache, new StringSerializer(), new StringSerializer(), port);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		System.out.println("serving on " + server.getAddress());
+		server.thread.join();
+	}
+
+	/**
+	 * Prints how to run the server and exits.
+	 * @param problem What was wrong with the arguments
+	 */
+	private static void usage(String problem) {
+		System.err.println(problem);
+		System.err.println("usage: CacheServer PORT CAPACITY");
+		System.exit(2);
+	}
+
+	/**
+	 * Returns the address clients should connect to.
+	 * @return the bound address
+	 */
+	public InetSocketAddress getAddress () {
+		return (InetSocketAddress) server.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * Stops serving and closes every connection. Lookups still running are left to finish,
+	 * but their replies are dropped.
+	 */
+	public void close () {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(ownWorkers != null) {
+			ownWorkers.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the selector loop until the server is closed.
+	 */
+	private void serve() {
+		try {
+			while(running) {
+				selector.select();
+				writeReplies();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if(key.isAcceptable()) {
+							accept();
+							continue;
+						}
+						if(key.isReadable()) read(key);
+						if(key.isValid() && key.isWritable()) flush(key);
+					}
+					catch(IOException | RuntimeException e) {
+						closeQuietly(key); //the client went away or sent garbage, which must not stop the other clients
+					}
+				}
+			}
+		}
+		catch(IOException | ClosedSelectorException e) {
+			//nothing more can be served
+		}
+		finally {
+			for(SelectionKey key : selector.keys()) {
+				closeQuietly(key);
+			}
+			try {
+				selector.close();
+			}
+			catch(IOException e) {
+				//already shutting down
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new client.
+	 * @throws IOException if the connection cannot be set up
+	 */
+	private void accept() throws IOException {
+		final SocketChannel channel = server.accept();
+		if(channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	/**
+	 * Queues the replies the workers finished for writing, and writes what the sockets take.
+	 */
+	private void writeReplies() {
+		Reply reply;
+		while((reply = replies.poll()) != null) {
+			if(!reply.key.isValid()) {
+				continue; //the client went away while its request was being looked up
+			}
+			((Connection) reply.key.attachment()).out.add(reply.bytes);
+			try {
+				flush(reply.key);
+			}
+			catch(IOException e) {
+				closeQuietly(reply.key);
+			}
+		}
+	}
+
+	/**
+	 * Reads what a client sent and hands every request that has fully arrived to a worker.
+	 * @param key The client's key
+	 * @throws IOException if the connection fails or a request is malformed
+	 */
+	private void read(SelectionKey key) throws IOException {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		final Connection connection = (Connection) key.attachment();
+		if(channel.read(connection.in) < 0) {
+			closeQuietly(key);
+			return;
+		}
+		ByteBuffer in = connection.in;
+		in.flip();
+		while(in.remaining() >= 4) {
+			final int length = in.getInt(in.position());
+			if(length < 8 || length > MAX_FRAME) {
+				throw new IOException("bad request length " + length);
+			}
+			if(in.remaining() < 4 + length) {
+				break; //the rest has not arrived yet
+			}
+			final ByteBuffer frame = in.duplicate();
+			frame.position(in.position() + 4).limit(in.position() + 4 + length);
+			in.position(in.position() + 4 + length);
+			final Request<T> request = parse(frame);
+			try {
+				workers.execute(() -> reply(key, answer(request)));
+			}
+			catch(RejectedExecutionException e) {
+				throw new IOException("no worker to look the request up", e);
+			}
+		}
+		in.compact();
+		if(in.position() >= 4 && 4 + in.getInt(0) > in.capacity()) {
+			final ByteBuffer bigger = ByteBuffer.allocate(4 + in.getInt(0)); //room for the whole request
+			in.flip();
+			bigger.put(in);
+			connection.in = bigger;
+		}
+	}
+
+	/**
+	 * Reads the id and keys of one request, on the selector thread, before its bytes are
+	 * reused.
+	 * @param frame The request, without its length
+	 * @return the request
+	 * @throws IOException if the request is malformed
+	 */
+	private Request<T> parse(ByteBuffer frame) throws IOException {
+		try {
+			final int id = frame.getInt();
+			final int count = frame.getInt();
+			if(count < 0 || count > frame.remaining() / 4) {
+				throw new IOException("bad key count " + count); //every key takes at least its length
+			}
+			final List<T> keys = new ArrayList<T>(count);
+			for(int i = 0; i < count; i++) {
+				final int length = frame.getInt();
+				final ByteBuffer bytes = frame.duplicate();
+				bytes.limit(frame.position() + length);
+				keys.add(keySerializer.deserialize(bytes));
+				frame.position(frame.position() + length);
+			}
+			return new Request<T>(id, keys);
+		}
+		catch(RuntimeException e) {
+			throw new IOException("malformed request", e);
+		}
+	}
+
+	/**
+	 * Looks up the keys in one request, loading the misses in one batch. Runs on a worker.
+	 * @param request The request
+	 * @return the reply, ready to write
+	 */
+	private ByteBuffer answer(Request<T> request) {
+		final AtomicInteger misses = new AtomicInteger();
+		final byte[][] encoded = new byte[request.keys.size()][];
+		int length = 12;
+		try {
+			final Map<T, U> values = cache.getAll(request.keys, misses);
+			for(int i = 0; i < encoded.length; i++) {
+				final U value = values.get(request.keys.get(i));
+				encoded[i] = value == null ? null : valueSerializer.serialize(value);
+				length += 4 + (value == null ? 0 : encoded[i].length);
+			}
+		}
+		catch(RuntimeException e) {
+			final byte[] message = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer reply = ByteBuffer.allocate(20 + message.length);
+			reply.putInt(16 + message.length).putInt(request.id).putInt(0).putInt(ERROR);
+			reply.putInt(message.length).put(message);
+			return reply.flip();
+		}
+		final ByteBuffer reply = ByteBuffer.allocate(4 + length);
+		reply.putInt(length).putInt(request.id).putInt(misses.get()).putInt(encoded.length);
+		for(byte[] bytes : encoded) {
+			if(bytes == null) {
+				reply.putInt(-1);
+			}
+			else {
+				reply.putInt(bytes.length).put(bytes);
+			}
+		}
+		return reply.flip();
+	}
+
+	/**
+	 * Hands a reply from a worker to the selector thread. A reply for a server that has been
+	 * closed is never written.
+	 * @param key The client's key
+	 * @param bytes The reply
+	 */
+	private void reply(SelectionKey key, ByteBuffer bytes) {
+		replies.add(new Reply(key, bytes));
+		selector.wakeup();
+	}
+
+	/**
+	 * Writes as many waiting replies as the socket takes, and asks to be woken up when it
+	 * can take the rest.
+	 * @param key The client's key
+	 * @throws IOException if the connection fails
+	 */
+	private void flush(SelectionKey key) throws IOException {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		final Connection connection = (Connection) key.attachment();
+		while(!connection.out.isEmpty()) {
+			final ByteBuffer reply = connection.out.peek();
+			channel.write(reply);
+			if(reply.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.out.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Closes a channel, ignoring failures.
+	 * @param key The channel's key
+	 */
+	private static void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		}
+		catch(IOException e) {
+			//closing anyway
+		}
+	}
+
+	/**
+	 * What has been read from a client but not handled yet, and the replies not yet written.
+	 */
+	private static class Connection {
+		public ByteBuffer in = ByteBuffer.allocate(4096);
+		final public ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+	}
+
+	/**
+	 * A request, parsed.
+	 */
+	private static class Request<T> {
+		final public int id;
+		final public List<T> keys;
+		public Request(int id, List<T> keys) {
+			this.id = id;
+			this.keys = keys;
+		}
+	}
+
+	/**
+	 * A reply a worker finished, and the client it goes to.
+	 */
+	private static class Reply {
+		final public SelectionKey key;
+		final public ByteBuffer bytes;
+		public Reply(SelectionKey key, ByteBuffer bytes) {
+			this.key = key;
+			this.bytes = bytes;
+		}
+	}
+}
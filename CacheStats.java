@@ -0,0 +1,113 @@
+/**
+ * A snapshot of a cache's statistics, taken by <tt>StatsCounter.snapshot</tt>. Counts are
+ * 64 bits wide, and load times are in nanoseconds.
+ */
+public class CacheStats {
+	final private long hitCount;
+	final private long missCount;
+	final private long evictionCount;
+	final private long loadSuccessCount;
+	final private long loadFailureCount;
+	final private long totalLoadTime;
+	final private LatencyHistogram loadLatency;
+
+	/**
+	 * @param hitCount the number of lookups that found their key
+	 * @param missCount the number of lookups that did not
+	 * @param evictionCount the number of entries evicted or expired
+	 * @param loadSuccessCount the number of provider calls that returned
+	 * @param loadFailureCount the number of provider calls that threw
+	 * @param totalLoadTime the time spent in the provider, in nanoseconds
+	 * @param loadLatency how long each provider call took, which the snapshot keeps as is
+	 */
+	CacheStats (long hitCount, long missCount, long evictionCount, long loadSuccessCount,
+			long loadFailureCount, long totalLoadTime, LatencyHistogram loadLatency) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTime = totalLoadTime;
+		this.loadLatency = loadLatency;
+	}
+
+	/**
+	 * @return the number of lookups that found their key
+	 */
+	public long getHitCount () {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of lookups that did not find their key
+	 */
+	public long getMissCount () {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of lookups
+	 */
+	public long getRequestCount () {
+		return hitCount + missCount;
+	}
+
+	/**
+	 * @return the fraction of lookups that were hits, or 1 if there were none
+	 */
+	public double getHitRate () {
+		final long requests = getRequestCount();
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	/**
+	 * @return the number of entries that were evicted or expired
+	 */
+	public long getEvictionCount () {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of provider calls that returned a value
+	 */
+	public long getLoadSuccessCount () {
+		return loadSuccessCount;
+	}
+
+	/**
+	 * @return the number of provider calls that threw
+	 */
+	public long getLoadFailureCount () {
+		return loadFailureCount;
+	}
+
+	/**
+	 * @return the time spent in the provider, in nanoseconds
+	 */
+	public long getTotalLoadTime () {
+		return totalLoadTime;
+	}
+
+	/**
+	 * @return the average time of a provider call, in nanoseconds
+	 */
+	public double getAverageLoadPenalty () {
+		final long loads = loadSuccessCount + loadFailureCount;
+		return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+	}
+
+	/**
+	 * Returns the time that the specified percentage of provider calls took at most.
+	 * @param percentile the percentage, from 0 to 100
+	 * @return the load time at the percentile, in nanoseconds
+	 */
+	public long getLoadLatencyAtPercentile (double percentile) {
+		return loadLatency.getValueAtPercentile(percentile);
+	}
+
+	public String toString () {
+		return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+				+ ", loadSuccesses=" + loadSuccessCount + ", loadFailures=" + loadFailureCount
+				+ ", totalLoadTime=" + totalLoadTime + ", p99LoadTime=" + getLoadLatencyAtPercentile(99) + "}";
+	}
+}
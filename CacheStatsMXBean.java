@@ -0,0 +1,27 @@
+/**
+ * The JMX view of a cache's statistics, registered by <tt>StatsCounter.registerMBean</tt>.
+ * Times are in nanoseconds.
+ */
+public interface CacheStatsMXBean {
+	long getHitCount ();
+
+	long getMissCount ();
+
+	double getHitRate ();
+
+	long getEvictionCount ();
+
+	long getLoadSuccessCount ();
+
+	long getLoadFailureCount ();
+
+	long getTotalLoadTime ();
+
+	double getAverageLoadPenalty ();
+
+	long getLoadLatency50thPercentile ();
+
+	long getLoadLatency99thPercentile ();
+
+	long getLoadLatency999thPercentile ();
+}
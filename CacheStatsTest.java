@@ -0,0 +1,141 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Code to test <tt>StatsCounter</tt>, <tt>CacheStats</tt> and <tt>LatencyHistogram</tt>.
+ */
+public class CacheStatsTest {
+	private static class Provider implements DataProvider<Integer,String> {
+		public String get(Integer key) {
+			if(key < 0) {
+				throw new IllegalArgumentException("no negative keys");
+			}
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Tests that hits, misses, evictions and loads are counted.
+	 */
+	@Test
+	public void countsLookups() {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(new Provider(), 2);
+		cache.setStatsCounter(new StatsCounter());
+		cache.get(1);
+		cache.get(2);
+		cache.get(1);
+		cache.get(3); //evicts 2
+		cache.getAll(Arrays.asList(1, 4, 5)); //one hit, one batch load
+		try {
+			cache.get(-1);
+			fail();
+		}
+		catch(IllegalArgumentException e) {
+			//expected
+		}
+		final CacheStats stats = cache.getStats();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(5, stats.getMissCount());
+		assertEquals(3, stats.getEvictionCount());
+		assertEquals(4, stats.getLoadSuccessCount());
+		assertEquals(1, stats.getLoadFailureCount());
+		assertEquals(2.0 / 7, stats.getHitRate(), 1e-9);
+		assertTrue(stats.getLoadLatencyAtPercentile(50) > 0);
+	}
+
+	/**
+	 * Tests that a cache without a counter reports empty statistics.
+	 */
+	@Test
+	public void disabledStatsAreEmpty() {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(new Provider(), 2);
+		cache.get(1);
+		cache.get(1);
+		assertEquals(0, cache.getStats().getRequestCount());
+		assertEquals(1, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that percentiles are reported within a sixteenth of the true value.
+	 */
+	@Test
+	public void histogramPercentilesAreClose() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for(long i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(100000, histogram.getCount());
+		for(double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+			final double expected = percentile * 1000 * 1000;
+			assertEquals(expected, histogram.getValueAtPercentile(percentile), expected / 16);
+		}
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	/**
+	 * Tests that the counter can be read through JMX.
+	 */
+	@Test
+	public void statsAreExposedThroughJmx() throws Exception {
+		final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(new Provider(), 10);
+		final StatsCounter counter = new StatsCounter();
+		cache.setStatsCounter(counter);
+		cache.get(1);
+		cache.get(1);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = counter.registerMBean("test");
+		try {
+			assertEquals(1L, server.getAttribute(name, "HitCount"));
+			assertEquals(1L, server.getAttribute(name, "MissCount"));
+			assertEquals(0.5, (Double) server.getAttribute(name, "HitRate"), 1e-9);
+		}
+		finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	/**
+	 * Tests that loads and evictions show up as JFR events.
+	 */
+	@Test
+	public void loadsAndEvictionsAreJfrEvents() throws Exception {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(new Provider(), 1);
+		cache.setStatsCounter(new StatsCounter());
+		final Path file = Files.createTempFile("cache", ".jfr");
+		try(Recording recording = new Recording()) {
+			recording.enable("cache.Load");
+			recording.enable("cache.Eviction");
+			recording.start();
+			cache.get(1);
+			cache.get(2);
+			recording.stop();
+			recording.dump(file);
+			final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			long loads = 0;
+			long evictions = 0;
+			for(RecordedEvent event : events) {
+				if(event.getEventType().getName().equals("cache.Load")) loads++;
+				if(event.getEventType().getName().equals("cache.Eviction")) {
+					evictions++;
+					assertEquals("1", event.getString("key"));
+				}
+			}
+			assertEquals(2, loads);
+			assertEquals(1, evictions);
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
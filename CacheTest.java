@@ -1,11 +1,29 @@
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Code to test an <tt>LRUCache</tt> implementation.
  */
 public class CacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	private Provider provider;
 	private Cache<Integer, String> bigCache;
 	private static class Provider implements DataProvider<Integer,String> {
@@ -14,6 +32,23 @@ public class CacheTest {
 			return "" + key;
 		}
 	}
+	private static class BatchProvider extends Provider {
+		public int batches = 0;
+		public int fetched = 0;
+		public Map<Integer,String> getAll(Collection<Integer> keys) {
+			batches++;
+			fetched += keys.size();
+			return super.getAll(keys);
+		}
+	}
+	private static class IntegerSerializer implements Serializer<Integer> {
+		public byte[] serialize(Integer value) {
+			return ByteBuffer.allocate(4).putInt(value).array();
+		}
+		public Integer deserialize(ByteBuffer bytes) {
+			return bytes.getInt(bytes.position());
+		}
+	}
 	/**
 	 * Tests that the Cache is providing everything correctly, and misses are being
 	 * counted fine.
@@ -91,6 +126,372 @@ public class CacheTest {
 	
 	
 	
+	/**
+	 * Tests that getAll sends every miss to the provider in one batch, counts each
+	 * missing key once, and leaves the LRU order as if the keys were fetched one by one.
+	 */
+	@Test
+	public void getAllBatchesMisses() {
+		final BatchProvider batch = new BatchProvider();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(batch, 4);
+		cache.get(1);
+		final Map<Integer,String> values = cache.getAll(Arrays.asList(1, 2, 3, 2, 4));
+		assertEquals(4, values.size());
+		assertEquals("1", values.get(1));
+		assertEquals("4", values.get(4));
+		assertEquals(1, batch.batches); //2, 3 and 4 all went in one call
+		assertEquals(3, batch.fetched);
+		assertEquals(4, cache.getNumMisses());
+		cache.getAll(Arrays.asList(1, 2, 3, 4)); //all hits, provider is not called
+		assertEquals(1, batch.batches);
+		assertEquals(4, cache.getNumMisses());
+		cache.get(5); //get rid of 1 for 5
+		cache.get(1);
+		assertEquals(6, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that a weighed cache evicts from the back until a new entry fits, and that an
+	 * entry heavier than the whole cache is returned without being cached.
+	 */
+	@Test
+	public void weighedCacheEvictsByWeight() {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, (key, value) -> value.length(), 6);
+		cache.get(1); //weighs 1
+		cache.get(22); //weighs 2
+		cache.get(333); //weighs 3, cache is full at 6
+		assertEquals(6, cache.getTotalWeight());
+		assertEquals(3, cache.getNumMisses());
+		cache.get(1);
+		cache.get(4444); //weighs 4, get rid of 22 and 333 to make room
+		assertEquals(5, cache.getTotalWeight());
+		cache.get(1);
+		assertEquals(4, cache.getNumMisses());
+		cache.get(22); //get rid of 4444, since 1 was used more recently
+		assertEquals(5, cache.getNumMisses());
+		assertEquals(3, cache.getTotalWeight());
+		cache.get(1234567); //weighs 7, more than the whole cache
+		cache.get(1234567);
+		assertEquals(7, cache.getNumMisses());
+		assertEquals(3, cache.getTotalWeight()); //1 and 22 are still there
+		cache.get(1);
+		cache.get(22);
+		assertEquals(7, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that an entry expires a fixed time after it was loaded however often it is read,
+	 * and that looking up an expired entry counts as a miss and loads it again.
+	 */
+	@Test
+	public void expiredEntryIsReloaded() {
+		final AtomicLong time = new AtomicLong();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 10);
+		cache.setExpiry(Expiry.afterWrite(10, TimeUnit.SECONDS), time::get);
+		cache.get(1);
+		time.addAndGet(TimeUnit.SECONDS.toNanos(9));
+		cache.get(1); //still fresh
+		assertEquals(1, cache.getNumMisses());
+		time.addAndGet(TimeUnit.SECONDS.toNanos(2));
+		assertEquals("1", cache.get(1)); //reading it did not extend its life
+		assertEquals(2, cache.getNumMisses());
+		cache.get(1);
+		assertEquals(2, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that a second expiry leaves no entry scheduled on the first one's wheel, so the
+	 * entries already cached stop expiring, as for the first expiry.
+	 */
+	@Test
+	public void replacedExpiryForgetsOldTimers() {
+		final AtomicLong time = new AtomicLong();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 10);
+		cache.setExpiry(Expiry.afterWrite(10, TimeUnit.SECONDS), time::get);
+		cache.get(1);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.MINUTES), time::get);
+		cache.get(2);
+		time.addAndGet(TimeUnit.SECONDS.toNanos(30));
+		assertEquals("1", cache.get(1)); //its old deadline has passed, but it no longer has one
+		assertEquals("2", cache.get(2));
+		assertEquals(2, cache.getNumMisses());
+		time.addAndGet(TimeUnit.MINUTES.toNanos(1));
+		cache.get(2);
+		cache.get(1);
+		assertEquals(3, cache.getNumMisses()); //only 2 expired
+		assertEquals(2, cache.getTotalWeight());
+	}
+	
+	/**
+	 * Tests that reads keep an entry alive under expire-after-access, and that the timer wheel
+	 * clears out expired entries nobody asks for again.
+	 */
+	@Test
+	public void timerWheelRemovesIdleEntries() {
+		final AtomicLong time = new AtomicLong(-5); //nanoTime may be negative
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 100);
+		cache.setExpiry(Expiry.afterAccess(1, TimeUnit.MINUTES), time::get);
+		for(int i = 0; i < 50; i++) {
+			cache.get(i);
+		}
+		for(int i = 0; i < 5; i++) {
+			time.addAndGet(TimeUnit.SECONDS.toNanos(40));
+			cache.get(0); //keeps 0 alive, the rest have not been read for 200 seconds
+		}
+		assertEquals(1, cache.getTotalWeight());
+		assertEquals(50, cache.getNumMisses());
+		time.addAndGet(TimeUnit.HOURS.toNanos(30)); //further out than the wheel spans
+		cache.get(1);
+		assertEquals(1, cache.getTotalWeight());
+		assertEquals(51, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that the wheel keeps clearing out entries when the clock goes from negative to
+	 * positive, as <tt>System.nanoTime</tt> may.
+	 */
+	@Test
+	public void timerWheelCrossesZero() {
+		final AtomicLong time = new AtomicLong(-TimeUnit.SECONDS.toNanos(1));
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 100);
+		cache.setExpiry(Expiry.afterWrite(500, TimeUnit.MILLISECONDS), time::get);
+		for(int i = 0; i < 10; i++) {
+			cache.get(i);
+		}
+		time.set(TimeUnit.MILLISECONDS.toNanos(1)); //past every deadline, and past zero
+		cache.get(100);
+		assertEquals(1, cache.getTotalWeight());
+	}
+	
+	/**
+	 * Tests that an entry past the refresh age is served while one reload runs in the
+	 * background, and that the reloaded value is swapped in without counting a miss.
+	 */
+	@Test
+	public void staleEntryIsRefreshedInBackground() {
+		final AtomicLong time = new AtomicLong();
+		final AtomicLong version = new AtomicLong();
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> key + "v" + version.get(), 10);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.HOURS), time::get);
+		cache.setRefreshAfterWrite(1, TimeUnit.MINUTES, tasks::add);
+		assertEquals("1v0", cache.get(1));
+		version.set(1);
+		time.addAndGet(TimeUnit.MINUTES.toNanos(2));
+		assertEquals("1v0", cache.get(1)); //stale, but served at once
+		assertEquals("1v0", cache.get(1));
+		assertEquals(1, tasks.size()); //only one reload at a time
+		tasks.remove(0).run();
+		assertEquals("1v1", cache.get(1));
+		assertEquals(1, cache.getNumMisses());
+		assertTrue(tasks.isEmpty());
+	}
+	
+	/**
+	 * Tests that a failed refresh keeps the old value and records the error instead of
+	 * throwing it at the caller.
+	 */
+	@Test
+	public void failedRefreshKeepsOldValue() {
+		final AtomicLong time = new AtomicLong();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> {
+			if(time.get() > 0) {
+				throw new IllegalStateException("backend down");
+			}
+			return "" + key;
+		}, 10);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.HOURS), time::get);
+		cache.setRefreshAfterWrite(1, TimeUnit.MINUTES, Runnable::run);
+		cache.get(1);
+		time.addAndGet(TimeUnit.MINUTES.toNanos(2));
+		assertEquals("1", cache.get(1));
+		assertEquals(1, cache.getRefreshFailures());
+		assertEquals("backend down", cache.getLastRefreshFailure().getMessage());
+		assertEquals("1", cache.get(1)); //not tried again until another refresh period passes
+		assertEquals(1, cache.getRefreshFailures());
+		assertEquals(1, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that a restored cache holds the same entries in the same LRU order, without
+	 * asking the provider.
+	 */
+	@Test
+	public void restoreKeepsEntriesAndOrder() throws IOException {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 3);
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(1); //order is now 1, 3, 2
+		final Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+		cache.snapshot(file, new IntegerSerializer(), new StringSerializer());
+		final LRUCache<Integer,String> restored = new LRUCache<Integer,String>(key -> {
+			throw new AssertionError("restore must not call the provider");
+		}, 3);
+		restored.restore(file, new IntegerSerializer(), new StringSerializer());
+		assertEquals(0, restored.getNumMisses());
+		assertEquals("1", restored.get(1));
+		assertEquals("2", restored.get(2));
+		assertEquals("3", restored.get(3));
+		assertEquals(0, restored.getNumMisses());
+		final LRUCache<Integer,String> smaller = new LRUCache<Integer,String>(provider, 2);
+		smaller.get(9);
+		smaller.restore(file, new IntegerSerializer(), new StringSerializer());
+		smaller.get(1);
+		smaller.get(3);
+		assertEquals(1, smaller.getNumMisses()); //9 was replaced, and 2 did not fit
+		smaller.get(2);
+		assertEquals(2, smaller.getNumMisses());
+	}
+	
+	/**
+	 * Tests that a file that is not a snapshot is turned down.
+	 */
+	@Test(expected = IOException.class)
+	public void restoreRejectsOtherFiles() throws IOException {
+		final Path file = folder.newFile("not-a-snapshot").toPath();
+		Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+		new LRUCache<Integer,String>(provider, 3).restore(file, new IntegerSerializer(), new StringSerializer());
+	}
+	
+	/**
+	 * Tests that growing takes effect at once, and that shrinking evicts the least recently
+	 * used entries a few at a time over later calls.
+	 */
+	@Test
+	public void setCapacityShrinksIncrementally() {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 1000);
+		for(int i = 0; i < 1000; i++) {
+			cache.get(i);
+		}
+		cache.setCapacity(100);
+		assertEquals(1000, cache.getTotalWeight()); //nothing evicted yet
+		cache.get(999); //a hit evicts one step
+		assertEquals(984, cache.getTotalWeight());
+		cache.get(5000); //a miss evicts one step, and at least as much as it adds
+		assertTrue(cache.getTotalWeight() <= 968);
+		for(int i = 0; i < 100; i++) {
+			cache.get(999);
+		}
+		assertEquals(100, cache.getTotalWeight());
+		final int misses = cache.getNumMisses();
+		for(int i = 901; i < 1000; i++) {
+			cache.get(i); //the 99 most recent of the original entries, plus 5000, survived
+		}
+		cache.get(5000);
+		assertEquals(misses, cache.getNumMisses());
+		cache.setCapacity(200);
+		for(int i = 0; i < 100; i++) {
+			cache.get(i);
+		}
+		assertEquals(200, cache.getTotalWeight());
+		cache.get(999);
+		assertEquals(misses + 100, cache.getNumMisses()); //growing made room without evicting
+	}
+	
+	/**
+	 * Tests that keys the provider has no value for are remembered in their own region: they
+	 * do not reach the provider again until they expire, and do not push real entries out.
+	 */
+	@Test
+	public void absentKeysAreCachedApart() {
+		final AtomicLong time = new AtomicLong();
+		final AtomicLong calls = new AtomicLong();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> {
+			calls.incrementAndGet();
+			return key < 0 ? null : "" + key;
+		}, 3);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.HOURS), time::get);
+		cache.setNegativeCaching(10, 30, TimeUnit.SECONDS);
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		for(int pass = 0; pass < 3; pass++) {
+			for(int key = -1; key >= -20; key--) {
+				assertNull(cache.get(key));
+			}
+		}
+		assertEquals(10, cache.getNegativeSize()); //bounded, oldest dropped first
+		assertEquals(3, cache.getTotalWeight());
+		final long before = calls.get();
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		assertNull(cache.get(-20)); //among the 10 newest
+		assertEquals(before, calls.get());
+		time.addAndGet(TimeUnit.SECONDS.toNanos(31));
+		assertNull(cache.get(-20)); //forgotten, so asked again
+		assertEquals(before + 1, calls.get());
+	}
+	
+	/**
+	 * Tests that weakly held values are collected once nothing else uses them, and that the
+	 * emptied entries are cleared out and reloaded as misses, while values still in use stay.
+	 */
+	@Test
+	public void collectedValuesAreReloaded() throws InterruptedException {
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, 10);
+		cache.setValueStrength(LRUCache.ValueStrength.WEAK);
+		final String kept = cache.get(1);
+		final ReferenceQueue<String> gone = new ReferenceQueue<String>();
+		final List<WeakReference<String>> dropped = Arrays.asList(new WeakReference<String>(cache.get(2), gone), new WeakReference<String>(cache.get(3), gone));
+		assertEquals(3, cache.getTotalWeight());
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for(int cleared = 0; cleared < dropped.size(); ) {
+			assertTrue("values were never collected", System.nanoTime() - deadline < 0);
+			System.gc();
+			if(gone.remove(100) != null) cleared++;
+		}
+		while(cache.getTotalWeight() > 1) {
+			assertTrue("collected values were never cleared out", System.nanoTime() - deadline < 0);
+			cache.get(1); //clears out whatever was collected
+			Thread.yield(); //the cache's own references may be queued a moment after ours
+		}
+		assertSame(kept, cache.get(1));
+		assertEquals(3, cache.getNumMisses());
+		assertEquals("2", cache.get(2)); //collected, so loaded again
+		assertEquals(4, cache.getNumMisses());
+	}
+	
+	/**
+	 * Tests that <tt>put</tt> and <tt>invalidate</tt> go through the writer first, keep the
+	 * cache current without reloading, and leave it alone when the writer fails.
+	 */
+	@Test
+	public void writesGoThroughTheWriter() {
+		final Map<Integer,String> backend = new HashMap<Integer,String>();
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> backend.getOrDefault(key, "" + key), 3);
+		cache.setWriter(new CacheWriter<Integer,String>() {
+			public void write(Integer key, String value) {
+				if(value.isEmpty()) {
+					throw new IllegalArgumentException("empty values are not allowed");
+				}
+				backend.put(key, value);
+			}
+			public void delete(Integer key) {
+				backend.remove(key);
+			}
+		});
+		assertEquals("1", cache.get(1));
+		cache.put(1, "one");
+		cache.put(2, "two");
+		assertEquals("one", backend.get(1));
+		assertEquals("one", cache.get(1));
+		assertEquals("two", cache.get(2));
+		assertEquals(1, cache.getNumMisses()); //written values are cached, not reloaded
+		try {
+			cache.put(1, "");
+			fail("expected the writer to refuse the value");
+		}
+		catch(IllegalArgumentException e) {
+			assertEquals("one", cache.get(1));
+		}
+		cache.invalidate(1);
+		assertFalse(backend.containsKey(1));
+		assertEquals("1", cache.get(1));
+		assertEquals(2, cache.getNumMisses());
+	}
+	
 	@Before
 	public void init() {
 		provider = new Provider();
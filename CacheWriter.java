@@ -0,0 +1,54 @@
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes the changes made through a cache to the backend the cache's
+ * <tt>DataProvider</tt> reads from, so the two stay in step.
+ */
+interface CacheWriter<T, U> {
+	/**
+	 * Stores a value for a key in the backend.
+	 * @param key the key
+	 * @param value the new value
+	 */
+	void write (T key, U value);
+
+	/**
+	 * Removes a key from the backend.
+	 * @param key the key
+	 */
+	void delete (T key);
+
+	/**
+	 * Stores several values at once. Backends that can write a batch in one round trip
+	 * should override this; by default it calls <tt>write</tt> once per entry.
+	 * @param entries the keys and their new values
+	 */
+	default void writeAll (Map<T, U> entries) {
+		for(Map.Entry<T, U> entry : entries.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes several keys at once. By default it calls <tt>delete</tt> once per key.
+	 * @param keys the keys
+	 */
+	default void deleteAll (Collection<T> keys) {
+		for(T key : keys) {
+			delete(key);
+		}
+	}
+
+	/**
+	 * Returns a provider that reads the backend as it will be once every write given to this
+	 * writer has reached it. Caches load through it, so a miss never brings back a value
+	 * that a write still on its way is about to replace. A writer that writes straight
+	 * through has nothing on its way and returns the provider itself.
+	 * @param provider reads the backend
+	 * @return the provider to load through
+	 */
+	default DataProvider<T, U> readThrough (DataProvider<T, U> provider) {
+		return provider;
+	}
+}
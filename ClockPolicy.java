@@ -0,0 +1,86 @@
+import java.util.Iterator;
+
+/**
+ * CLOCK eviction, an approximation of LRU that never reorders anything on a hit. Entries sit
+ * in a ring with a reference bit each; a hit only sets the bit. To make room the clock hand
+ * sweeps the ring, clearing set bits as it goes (a second chance), and evicts the first
+ * entry whose bit is already clear. New entries go in just behind the hand, so they are the
+ * last it reaches.
+ */
+public class ClockPolicy<T> implements EvictionPolicy<T> {
+	final private NodeList<T> ring;
+	private Node<T> hand; //the next entry to look at, null until the first eviction
+
+	public ClockPolicy () {
+		ring = new NodeList<T>();
+		hand = null;
+	}
+
+	/**
+	 * Does nothing, the ring holds whatever the cache holds.
+	 * @param capacity the capacity of the cache
+	 */
+	public void setCapacity (long capacity) {
+	}
+
+	/**
+	 * Sets the entry's reference bit.
+	 * @param node the entry that was hit
+	 */
+	public void recordHit (Node<T> node) {
+		node.referenced = true;
+	}
+
+	/**
+	 * Adds the entry just behind the hand, with its reference bit clear.
+	 * @param node the new entry
+	 */
+	public void add (Node<T> node) {
+		node.referenced = false;
+		if(hand == null) {
+			ring.addLast(node);
+		}
+		else {
+			ring.addBefore(node, hand);
+		}
+	}
+
+	/**
+	 * Sweeps the hand to the first entry whose reference bit is clear, clearing the bits it
+	 * passes over.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	public Node<T> evict () {
+		if(ring.isEmpty()) {
+			return null;
+		}
+		if(hand == null) {
+			hand = ring.first();
+		}
+		while(hand.referenced) {
+			hand.referenced = false; //second chance
+			hand = ring.next(hand);
+		}
+		final Node<T> victim = hand;
+		remove(victim);
+		return victim;
+	}
+
+	/**
+	 * Takes the entry out of the ring, moving the hand on if it points at it.
+	 * @param node the entry that left
+	 */
+	public void remove (Node<T> node) {
+		if(node == hand) {
+			hand = ring.size() == 1 ? null : ring.next(node);
+		}
+		ring.remove(node);
+	}
+
+	/**
+	 * Iterates round the ring from its start.
+	 */
+	public Iterator<Node<T>> iterator () {
+		return ring.iterator();
+	}
+}
@@ -0,0 +1,456 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread-safe implementation of <tt>Cache</tt> that splits the key space into
+ * independently locked segments. Each segment is its own <tt>LRUCache</tt> with its
+ * own LRU list and miss counter, so threads asking for keys in different segments
+ * never wait on each other. Eviction is least-recently-used within each segment.
+ * <p>
+ * Loads are single-flight: the first thread to miss on a key calls the provider
+ * outside of the segment lock, and any thread that misses on the same key while that
+ * load is running waits for its result instead of calling the provider again. The
+ * whole burst counts as one miss. The <tt>DataProvider</tt> must be safe to call from
+ * several threads at once.
+ * <p>
+ * Given a <tt>StatsCounter</tt>, every segment records into it; its striped counters keep
+ * threads in different segments from contending on the statistics.
+ * <p>
+ * With <tt>setExpiry</tt> and <tt>setStaleRetention</tt>, a load the provider turns down
+ * with a <tt>LoadRejectedException</tt> that allows it is answered with the expired value
+ * its segment kept, for the caller and every thread waiting on the load.
+ * <p>
+ * <tt>put</tt> and <tt>invalidate</tt> call the <tt>CacheWriter</tt> outside of the segment
+ * lock. Writes to one key take turns through a per-key marker, like loads, so the backend
+ * sees them in the same order as the cache while writes to other keys carry on. A load
+ * that was running when its key was written is handed to its waiters but not cached.
+ */
+public class ConcurrentLRUCache<T, U> implements WritableCache<T, U> {
+	final private static int DEFAULT_CONCURRENCY = 16;
+	final private DataProvider<T, U> provider;
+	final private Segment<T, U>[] segments;
+	private volatile StatsCounter stats;
+	private volatile CacheWriter<T, U> writer;
+	private volatile DataProvider<T, U> loader; //the provider as seen through the writer's pending writes
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public ConcurrentLRUCache (DataProvider<T, U> provider, int capacity) {
+		this(provider, capacity, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @param concurrency the number of segments to split the key space into
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLRUCache (DataProvider<T, U> provider, int capacity, int concurrency) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		if(concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		}
+		this.provider = provider;
+		loader = provider;
+		final int numSegments = Math.min(concurrency, capacity); //every segment must hold at least one entry
+		segments = (Segment<T, U>[]) new Segment<?, ?>[numSegments];
+		for(int i = 0; i < numSegments; i++) {
+			//spread the remainder over the first segments so the capacities add up exactly
+			final int segmentCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+			segments[i] = new Segment<T, U>(provider, segmentCapacity);
+		}
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	@SuppressWarnings("unchecked")
+	public U get (T key) {
+		final Segment<T, U> segment = segmentFor(key);
+		final CompletableFuture<U> load;
+		final boolean owner;
+		synchronized(segment) {
+			final Object hit = segment.cache.getIfPresent(key);
+			if(hit != LRUCache.MISS) {
+				return (U) hit; //the lookup already told the eviction policy
+			}
+			final CompletableFuture<U> running = segment.loading.get(key);
+			owner = running == null; //the first thread to miss does the load, everyone else waits for it
+			if(owner) {
+				load = new CompletableFuture<U>();
+				segment.loading.put(key, load);
+			}
+			else {
+				load = running;
+			}
+		}
+		return owner ? runLoad(segment, key, load) : await(load);
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		int total = 0;
+		for(Segment<T, U> segment : segments) {
+			synchronized(segment) {
+				total += segment.cache.getNumMisses(); //lock each segment so we see its latest count
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Starts recording hits, misses, evictions and load times into the specified counter.
+	 * @param stats the counter, or null to stop recording
+	 */
+	public void setStatsCounter (StatsCounter stats) {
+		this.stats = stats;
+		for(Segment<T, U> segment : segments) {
+			synchronized(segment) {
+				segment.cache.setStatsCounter(stats);
+			}
+		}
+	}
+
+	/**
+	 * Makes entries expire as decided by the specified expiry. Each segment keeps its own
+	 * timer wheel. Entries already in the cache never expire.
+	 * @param expiry how long each entry may live
+	 * @param ticker the source of the current time, in nanoseconds, which must be thread-safe
+	 */
+	public void setExpiry (Expiry<T, U> expiry, LongSupplier ticker) {
+		for(Segment<T, U> segment : segments) {
+			synchronized(segment) {
+				segment.cache.setExpiry(expiry, ticker);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the values of expired entries for when the provider turns a reload down; see
+	 * <tt>LRUCache.setStaleRetention</tt>. The entries are shared out over the segments.
+	 * @param maxEntries the most expired values to keep
+	 */
+	public void setStaleRetention (int maxEntries) {
+		if(maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		for(Segment<T, U> segment : segments) {
+			synchronized(segment) {
+				segment.cache.setStaleRetention(Math.max(1, maxEntries / segments.length));
+			}
+		}
+	}
+
+	/**
+	 * Passes every <tt>put</tt> and <tt>invalidate</tt> on to the specified writer before
+	 * the cache changes. The writer must be thread-safe. Misses are loaded through the
+	 * writer's <tt>readThrough</tt>, so they see writes it has not passed on yet.
+	 * @param writer the writer, or null to only change the cache
+	 */
+	public void setWriter (CacheWriter<T, U> writer) {
+		loader = writer == null ? provider : writer.readThrough(provider);
+		this.writer = writer;
+	}
+
+	/**
+	 * Associates a value with a key, writing it to the <tt>CacheWriter</tt> first if there
+	 * is one. Does not count as a miss.
+	 * @param key the key
+	 * @param value the new value
+	 */
+	public void put (T key, U value) {
+		write(key, value, false);
+	}
+
+	/**
+	 * Drops the entry for a key, deleting the key through the <tt>CacheWriter</tt> first if
+	 * there is one.
+	 * @param key the key
+	 */
+	public void invalidate (T key) {
+		write(key, null, true);
+	}
+
+	/**
+	 * Returns the statistics recorded so far.
+	 * @return a snapshot of the counter, or empty statistics if there is none
+	 */
+	public CacheStats getStats () {
+		final StatsCounter current = stats;
+		return current == null ? new StatsCounter().snapshot() : current.snapshot();
+	}
+
+	/**
+	 * Returns the values associated with the specified keys. Keys that miss and are not
+	 * already being loaded by another thread go to the provider in one <tt>getAll</tt>
+	 * call; keys that another thread is loading wait for that load instead.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 */
+	public Map<T, U> getAll (Collection<T> keys) {
+		return getAll(keys, null);
+	}
+
+	/**
+	 * Like <tt>getAll</tt>, and also counts the keys this call sent to the provider. Unlike
+	 * the change in <tt>getNumMisses</tt>, that leaves out other threads' misses, which is
+	 * what <tt>CacheServer</tt> reports with each reply.
+	 * @param keys the keys
+	 * @param misses What to add the number of keys loaded to, or null
+	 * @return a map from each key to its associated value
+	 */
+	@SuppressWarnings("unchecked")
+	Map<T, U> getAll (Collection<T> keys, AtomicInteger misses) {
+		final Map<T, U> result = new HashMap<T, U>(keys.size() * 2);
+		final Map<T, CompletableFuture<U>> owned = new LinkedHashMap<T, CompletableFuture<U>>();
+		final Map<T, CompletableFuture<U>> waiting = new HashMap<T, CompletableFuture<U>>();
+		for(T key : keys) {
+			if(result.containsKey(key) || owned.containsKey(key) || waiting.containsKey(key)) {
+				continue; //a key asked for twice is only looked up (and missed) once
+			}
+			final Segment<T, U> segment = segmentFor(key);
+			synchronized(segment) {
+				final Object hit = segment.cache.getIfPresent(key);
+				if(hit != LRUCache.MISS) {
+					result.put(key, (U) hit);
+					continue;
+				}
+				final CompletableFuture<U> running = segment.loading.get(key);
+				if(running != null) {
+					waiting.put(key, running);
+				}
+				else {
+					final CompletableFuture<U> load = new CompletableFuture<U>();
+					segment.loading.put(key, load);
+					owned.put(key, load);
+				}
+			}
+		}
+		if(misses != null) {
+			misses.addAndGet(owned.size());
+		}
+		if(!owned.isEmpty()) {
+			Map<T, U> loaded;
+			boolean stale = false;
+			try {
+				final StatsCounter current = stats;
+				final ArrayList<T> keysToLoad = new ArrayList<T>(owned.keySet());
+				final DataProvider<T, U> source = loader;
+				loaded = current == null ? source.getAll(keysToLoad) : current.loadAll(source, keysToLoad);
+			}
+			catch(LoadRejectedException e) {
+				loaded = serveStale(owned, e);
+				stale = true;
+			}
+			catch(RuntimeException | Error e) {
+				for(Map.Entry<T, CompletableFuture<U>> entry : owned.entrySet()) {
+					abandon(segmentFor(entry.getKey()), entry.getKey(), entry.getValue(), e);
+				}
+				throw e;
+			}
+			for(Map.Entry<T, CompletableFuture<U>> entry : owned.entrySet()) {
+				final T key = entry.getKey();
+				result.put(key, stale ? loaded.get(key) : publish(segmentFor(key), key, entry.getValue(), loaded.get(key)));
+			}
+		}
+		for(Map.Entry<T, CompletableFuture<U>> entry : waiting.entrySet()) {
+			result.put(entry.getKey(), await(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Passes a write on to the <tt>CacheWriter</tt> and then applies it to the segment. The
+	 * writer is called without the segment lock held, once every earlier write to the key
+	 * is done, and a write the writer throws on leaves the cache as it was.
+	 * @param key The key
+	 * @param value The new value, ignored for a deletion
+	 * @param delete Whether to drop the key instead
+	 */
+	private void write(T key, U value, boolean delete) {
+		final Segment<T, U> segment = segmentFor(key);
+		final CacheWriter<T, U> current = writer;
+		final CompletableFuture<Void> turn = new CompletableFuture<Void>();
+		while(true) {
+			final CompletableFuture<Void> running;
+			synchronized(segment) {
+				running = segment.writing.putIfAbsent(key, turn);
+			}
+			if(running == null) {
+				break;
+			}
+			running.join(); //another write to the key goes first
+		}
+		try {
+			if(current != null) {
+				if(delete) current.delete(key);
+				else current.write(key, value);
+			}
+			synchronized(segment) {
+				if(delete) segment.cache.invalidate(key);
+				else segment.cache.put(key, value);
+				segment.loading.remove(key); //a load already running would bring back the old value
+			}
+		}
+		finally {
+			synchronized(segment) {
+				segment.writing.remove(key);
+			}
+			turn.complete(null);
+		}
+	}
+
+	/**
+	 * Calls the provider for a key that missed and publishes the result to the segment
+	 * and to every thread waiting on the load. The provider runs without the segment lock
+	 * held, so other keys in the segment stay available.
+	 * @param segment The segment that owns the key
+	 * @param key The key to load
+	 * @param load The future that waiting threads are blocked on
+	 * @return the loaded value
+	 */
+	private U runLoad(Segment<T, U> segment, T key, CompletableFuture<U> load) {
+		final U value;
+		try {
+			final StatsCounter current = stats;
+			final DataProvider<T, U> source = loader;
+			value = current == null ? source.get(key) : current.load(source, key);
+		}
+		catch(LoadRejectedException e) {
+			return serveStale(Collections.singletonMap(key, load), e).get(key);
+		}
+		catch(RuntimeException | Error e) {
+			abandon(segment, key, load, e);
+			throw e;
+		}
+		return publish(segment, key, load, value);
+	}
+
+	/**
+	 * Caches a loaded value and hands it to every thread waiting on the load.
+	 * @param segment The segment that owns the key
+	 * @param key The key that was loaded
+	 * @param load The future that waiting threads are blocked on
+	 * @param value The value the provider returned
+	 * @return the loaded value
+	 */
+	private U publish(Segment<T, U> segment, T key, CompletableFuture<U> load, U value) {
+		synchronized(segment) {
+			if(segment.loading.get(key) == load) { //unless the key was written while it loaded
+				segment.cache.addLoaded(key, value);
+				segment.loading.remove(key); //from here on callers will find the cached entry
+			}
+		}
+		load.complete(value);
+		return value;
+	}
+
+	/**
+	 * Answers loads the provider turned down with the expired values their segments kept,
+	 * without caching anything, so the next caller tries to load again. If any key has no
+	 * expired value to serve, every load fails with the rejection instead.
+	 * @param loads The keys that were rejected and the futures their waiters are blocked on
+	 * @param rejection Why the loads were rejected
+	 * @return the expired value of every key
+	 */
+	private Map<T, U> serveStale(Map<T, CompletableFuture<U>> loads, LoadRejectedException rejection) {
+		final Map<T, U> values = new HashMap<T, U>(loads.size() * 2);
+		for(T key : loads.keySet()) {
+			final Segment<T, U> segment = segmentFor(key);
+			try {
+				synchronized(segment) {
+					values.put(key, segment.cache.serveStale(key, rejection));
+				}
+			}
+			catch(LoadRejectedException e) {
+				for(Map.Entry<T, CompletableFuture<U>> entry : loads.entrySet()) {
+					abandon(segmentFor(entry.getKey()), entry.getKey(), entry.getValue(), e);
+				}
+				throw e;
+			}
+		}
+		for(Map.Entry<T, CompletableFuture<U>> entry : loads.entrySet()) {
+			final Segment<T, U> segment = segmentFor(entry.getKey());
+			synchronized(segment) {
+				segment.loading.remove(entry.getKey(), entry.getValue()); //not cached, so the next caller tries again
+			}
+			entry.getValue().complete(values.get(entry.getKey()));
+		}
+		return values;
+	}
+
+	/**
+	 * Forgets a load that failed and passes the failure on to every thread waiting on it.
+	 * @param segment The segment that owns the key
+	 * @param key The key that failed to load
+	 * @param load The future that waiting threads are blocked on
+	 * @param error What the provider threw
+	 */
+	private void abandon(Segment<T, U> segment, T key, CompletableFuture<U> load, Throwable error) {
+		synchronized(segment) {
+			segment.loading.remove(key, load); //let the next caller try again
+		}
+		load.completeExceptionally(error);
+	}
+
+	/**
+	 * Waits for a load started by another thread and returns its result, rethrowing any
+	 * exception the provider threw.
+	 * @param load The load to wait on
+	 * @return the loaded value
+	 */
+	private U await(CompletableFuture<U> load) {
+		try {
+			return load.join();
+		}
+		catch(CompletionException e) {
+			final Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the segment responsible for the specified key.
+	 * @param key The key to look up
+	 * @return the segment that holds the key
+	 */
+	private Segment<T, U> segmentFor(T key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 16); //mix the high bits in, since small Integer keys only differ in the low bits
+		return segments[Math.floorMod(h, segments.length)];
+	}
+
+	/**
+	 * One independently locked part of the cache: an LRU list plus the loads and writes that
+	 * are currently running for its keys. All are guarded by the segment's own monitor.
+	 */
+	private static class Segment<T, U> {
+		final public LRUCache<T, U> cache;
+		final public Map<T, CompletableFuture<U>> loading;
+		final public Map<T, CompletableFuture<Void>> writing; //completed once the write is applied
+		public Segment(DataProvider<T, U> provider, int capacity) {
+			cache = new LRUCache<T, U>(provider, capacity);
+			loading = new HashMap<T, CompletableFuture<U>>();
+			writing = new HashMap<T, CompletableFuture<Void>>();
+		}
+	}
+}
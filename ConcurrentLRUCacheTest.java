@@ -0,0 +1,350 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Code to test a <tt>ConcurrentLRUCache</tt> implementation.
+ */
+public class ConcurrentLRUCacheTest {
+	private static final int NUM_THREADS = 8;
+	private Provider provider;
+	private static class SlowProvider extends Provider {
+		final public CountDownLatch started = new CountDownLatch(1);
+		final private CountDownLatch release;
+		public SlowProvider(CountDownLatch release) {
+			this.release = release;
+		}
+		public String get(Integer key) {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.get(key);
+		}
+	}
+	private static class Provider implements DataProvider<Integer,String> {
+		final private AtomicInteger fetches = new AtomicInteger();
+		public String get(Integer key) {
+			fetches.incrementAndGet();
+			return "" + key;
+		}
+		public int getNumFetches() {
+			return fetches.get();
+		}
+	}
+
+	/**
+	 * With a single segment the cache should behave exactly like an <tt>LRUCache</tt>.
+	 */
+	@Test
+	public void singleSegmentIsExactLRU() {
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 3, 1);
+		assertEquals("1", cache.get(1));
+		assertEquals("2", cache.get(2));
+		assertEquals("3", cache.get(3));
+		assertEquals("1", cache.get(1)); //1 is now most recently used
+		assertEquals(3, cache.getNumMisses());
+		assertEquals("4", cache.get(4)); //get rid of 2 for 4
+		assertEquals("1", cache.get(1));
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("2", cache.get(2)); //2 was evicted
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that a key set that fits in every segment is only ever fetched once.
+	 */
+	@Test
+	public void doesNotRefetchUnnecessarily() {
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 1000, 4);
+		for(int pass = 0; pass < 10; pass++) {
+			for(int i = 0; i < 100; i++) {
+				assertEquals("" + i, cache.get(i));
+			}
+		}
+		assertEquals(100, provider.getNumFetches());
+		assertEquals(100, cache.getNumMisses());
+	}
+
+	/**
+	 * Hammers the cache from several threads and checks that every value is correct and
+	 * that the miss total across segments matches what the provider saw.
+	 */
+	@Test
+	public void concurrentCallersSeeCorrectValues() throws InterruptedException {
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 64);
+		final AtomicInteger wrong = new AtomicInteger();
+		final Thread[] threads = new Thread[NUM_THREADS];
+		for(int t = 0; t < NUM_THREADS; t++) {
+			final int seed = t;
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 20000; i++) {
+					final int key = (i * 31 + seed) % 200;
+					if(!("" + key).equals(cache.get(key))) {
+						wrong.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, wrong.get());
+		assertEquals(provider.getNumFetches(), cache.getNumMisses());
+	}
+
+	/**
+	 * Many threads missing on the same key at the same moment should cause exactly one
+	 * fetch and one miss, and every caller should get the loaded value.
+	 */
+	@Test
+	public void concurrentMissesShareOneFetch() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final SlowProvider slow = new SlowProvider(release);
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(slow, 5);
+		final String[] results = new String[NUM_THREADS];
+		final Thread[] threads = new Thread[NUM_THREADS];
+		for(int t = 0; t < NUM_THREADS; t++) {
+			final int index = t;
+			threads[t] = new Thread(() -> results[index] = cache.get(7));
+			threads[t].start();
+		}
+		assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+		awaitWaiting(threads); //the other threads have piled up behind the load
+		release.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		for(String result : results) {
+			assertEquals("7", result);
+		}
+		assertEquals(1, slow.getNumFetches());
+		assertEquals(1, cache.getNumMisses());
+	}
+
+	/**
+	 * Concurrent version of <tt>WhitehillTester.doesNotRefetchUnnecessarily</tt>: several threads
+	 * walking the same keys should fetch each key only once.
+	 */
+	@Test
+	public void concurrentCallersDoNotRefetchUnnecessarily() throws InterruptedException {
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 5, 1);
+		final Thread[] threads = new Thread[NUM_THREADS];
+		for(int t = 0; t < NUM_THREADS; t++) {
+			threads[t] = new Thread(() -> {
+				for(int pass = 0; pass < 10; pass++) {
+					for(int j = 0; j < 5; j++) {
+						cache.get(j);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(5, provider.getNumFetches());
+		assertEquals(provider.getNumFetches(), cache.getNumMisses());
+	}
+
+	/**
+	 * A failed load should be thrown to the caller and not cached, so the next caller retries.
+	 */
+	@Test
+	public void failedLoadIsRetried() {
+		final AtomicInteger calls = new AtomicInteger();
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(key -> {
+			if(calls.incrementAndGet() == 1) {
+				throw new IllegalStateException("backend down");
+			}
+			return "" + key;
+		}, 5);
+		try {
+			cache.get(1);
+			fail("expected the provider's exception");
+		}
+		catch(IllegalStateException e) {
+			//expected
+		}
+		assertEquals("1", cache.get(1));
+		assertEquals(2, calls.get());
+	}
+
+	/**
+	 * Tests that getAll loads all of its misses in one provider call, across segments.
+	 */
+	@Test
+	public void getAllBatchesMissesAcrossSegments() {
+		final AtomicInteger batches = new AtomicInteger();
+		final Cache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(new Provider() {
+			public Map<Integer,String> getAll(Collection<Integer> keys) {
+				batches.incrementAndGet();
+				return super.getAll(keys);
+			}
+		}, 100, 4);
+		cache.get(3);
+		final Map<Integer,String> values = cache.getAll(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8));
+		assertEquals(8, values.size());
+		for(int i = 1; i <= 8; i++) {
+			assertEquals("" + i, values.get(i));
+		}
+		assertEquals(1, batches.get());
+		assertEquals(8, cache.getNumMisses());
+	}
+
+	/**
+	 * A value put while a load for the same key is running should stay cached, rather than
+	 * being overwritten by the older value the load brings back.
+	 */
+	@Test
+	public void putDuringLoadIsNotOverwritten() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final SlowProvider slow = new SlowProvider(release);
+		final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(slow, 5);
+		final Thread loader = new Thread(() -> cache.get(7));
+		loader.start();
+		assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+		cache.put(7, "seven");
+		release.countDown();
+		loader.join();
+		assertEquals("seven", cache.get(7));
+		assertEquals(1, slow.getNumFetches());
+	}
+
+	/**
+	 * A slow write should only hold up later writes to the same key, which reach the backend
+	 * in order, while the rest of its segment stays available.
+	 */
+	@Test
+	public void writerRunsOutsideTheSegmentLock() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 5, 1);
+		cache.setWriter(new CacheWriter<Integer,String>() {
+			public void write(Integer key, String value) {
+				if(value.equals("slow")) {
+					started.countDown();
+					try {
+						release.await();
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				written.add(key + "=" + value);
+			}
+			public void delete(Integer key) {
+				written.add(key + " deleted");
+			}
+		});
+		final Thread first = new Thread(() -> cache.put(1, "slow"));
+		first.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		final Thread second = new Thread(() -> cache.put(1, "fast"));
+		second.start();
+		assertEquals("2", cache.get(2)); //the same segment, not blocked by the write
+		cache.put(3, "three");
+		second.join(100);
+		assertTrue(second.isAlive()); //waits its turn behind the first write to 1
+		release.countDown();
+		first.join();
+		second.join();
+		assertEquals(Arrays.asList("3=three", "1=slow", "1=fast"), written);
+		assertEquals("fast", cache.get(1));
+	}
+
+	/**
+	 * A load the provider turns down should be answered with the expired value the segment
+	 * kept, by <tt>get</tt> and <tt>getAll</tt> alike, and as often as it is turned down.
+	 */
+	@Test
+	public void rejectedLoadServesStale() {
+		final AtomicLong time = new AtomicLong();
+		final AtomicBoolean busy = new AtomicBoolean();
+		final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(key -> {
+			if(busy.get()) {
+				throw new LoadRejectedException("busy", true);
+			}
+			return key + "v" + time.get();
+		}, 10, 2);
+		cache.setExpiry(Expiry.afterWrite(1, TimeUnit.MINUTES), time::get);
+		cache.setStaleRetention(10);
+		assertEquals(Arrays.asList("1v0", "2v0"), Arrays.asList(cache.get(1), cache.get(2)));
+		busy.set(true);
+		time.addAndGet(TimeUnit.HOURS.toNanos(1));
+		for(int i = 0; i < 3; i++) {
+			assertEquals("1v0", cache.get(1));
+			assertEquals("2v0", cache.getAll(Arrays.asList(1, 2)).get(2));
+		}
+		try {
+			cache.getAll(Arrays.asList(1, 3));
+			fail("nothing stale to serve for a key that was never cached");
+		}
+		catch(LoadRejectedException e) {
+			assertTrue(e.isStaleAllowed());
+		}
+		busy.set(false);
+		final String reloaded = "1v" + time.get();
+		assertEquals(reloaded, cache.get(1));
+	}
+
+	/**
+	 * A hit should be decided by one look at the clock, so an entry that expires during the
+	 * lookup is either a hit or a single-flight load, never a load under the segment lock.
+	 */
+	@Test
+	public void hitReadsTheClockOnce() {
+		final AtomicLong time = new AtomicLong();
+		final AtomicBoolean ticking = new AtomicBoolean();
+		final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(provider, 5, 1);
+		cache.setExpiry(Expiry.afterWrite(100, TimeUnit.NANOSECONDS), () -> ticking.get() ? time.getAndIncrement() : time.get());
+		assertEquals("1", cache.get(1));
+		time.set(99); //one tick before the entry expires
+		ticking.set(true);
+		assertEquals("1", cache.get(1));
+		assertEquals(1, provider.getNumFetches());
+		assertEquals("1", cache.getAll(Arrays.asList(1)).get(1)); //now expired, and loaded again
+		assertEquals(2, provider.getNumFetches());
+		assertEquals(2, cache.getNumMisses());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroCapacity() {
+		new ConcurrentLRUCache<Integer,String>(provider, 0);
+	}
+
+	/**
+	 * Waits, up to a deadline, until every one of the threads is parked.
+	 * @param threads The threads
+	 */
+	private static void awaitWaiting(Thread[] threads) {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for(Thread thread : threads) {
+			while(thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+				assertTrue("a thread never started waiting", System.nanoTime() - deadline < 0);
+				Thread.yield();
+			}
+		}
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
@@ -1,3 +1,7 @@
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * CS 2103 2018 B-term (Whitehill)
  * A data provider that associates keys with values.
@@ -9,4 +13,19 @@ interface DataProvider<T, U> {
 	 * @return the value associated with the key
 	 */
 	U get (T key);
+
+	/**
+	 * Returns the values associated with the specified keys. Providers that can fetch
+	 * several keys in one round trip should override this; by default it calls
+	 * <tt>get</tt> once per key.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 */
+	default Map<T, U> getAll (Collection<T> keys) {
+		final Map<T, U> values = new HashMap<T, U>();
+		for(T key : keys) {
+			values.put(key, get(key));
+		}
+		return values;
+	}
 }
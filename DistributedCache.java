@@ -0,0 +1,433 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An implementation of <tt>Cache</tt> whose entries live in a set of <tt>CacheServer</tt>
+ * processes instead of this one, so the capacity is the sum of theirs and a key loaded for
+ * one client is a hit for every other. Keys are spread over the servers with a
+ * <tt>HashRing</tt>, so each key has one home and adding a server moves few keys.
+ * <p>
+ * Each server gets one connection. Requests are pipelined on it: a caller writes its
+ * request and waits for its own reply while other callers' requests go out behind it, and
+ * one reader thread per connection hands the replies out. <tt>getAll</tt> sends one batch
+ * per server, all before waiting for any of them. The client is thread-safe.
+ * <p>
+ * A server that goes away keeps its place on the ring. Requests for its keys fail with an
+ * <tt>UncheckedIOException</tt> until it can be reached again; the client reconnects on
+ * the next request for it, and while the server stays down, tries again at most once per
+ * backoff, which grows from 50 milliseconds up to 5 seconds. A server that stays connected
+ * but does not answer fails the request the same way once the timeout set with
+ * <tt>setTimeout</tt> has passed, 10 seconds by default.
+ */
+public class DistributedCache<T, U> implements Cache<T, U>, Closeable {
+	final private Serializer<T> keySerializer;
+	final private Serializer<U> valueSerializer;
+	final private List<Connection> connections;
+	final private HashRing<Connection> ring;
+	final private AtomicInteger misses;
+	private volatile long timeoutNanos;
+
+	/**
+	 * Connects to every server.
+	 * @param servers the servers' addresses; every client should list the same ones
+	 * @param keySerializer turns keys into the bytes that are sent and hashed
+	 * @param valueSerializer turns bytes from the servers back into values
+	 * @param virtualNodes the number of points each server has on the ring
+	 * @throws IOException if a server cannot be reached
+	 */
+	public DistributedCache (List<InetSocketAddress> servers, Serializer<T> keySerializer, Serializer<U> valueSerializer, int virtualNodes) throws IOException {
+		if(servers.isEmpty()) {
+			throw new IllegalArgumentException("at least one server is needed");
+		}
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		connections = new ArrayList<Connection>();
+		try {
+			for(InetSocketAddress address : servers) {
+				connections.add(new Connection(address));
+			}
+		}
+		catch(IOException e) {
+			close();
+			throw e;
+		}
+		ring = new HashRing<Connection>(connections, virtualNodes);
+		misses = new AtomicInteger();
+		timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+	}
+
+	/**
+	 * Returns the value associated with the specified key, from the server that owns it.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		return getAll(Collections.singletonList(key)).get(key);
+	}
+
+	/**
+	 * Returns the values associated with the specified keys, asking each server for all of
+	 * its keys in one request.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 */
+	public Map<T, U> getAll (Collection<T> keys) {
+		final Map<Connection, Batch<T>> batches = new LinkedHashMap<Connection, Batch<T>>();
+		for(T key : new LinkedHashSet<T>(keys)) {
+			final byte[] bytes = keySerializer.serialize(key);
+			batches.computeIfAbsent(ring.nodeFor(bytes), c -> new Batch<T>()).add(key, bytes);
+		}
+		for(Map.Entry<Connection, Batch<T>> entry : batches.entrySet()) {
+			entry.getValue().reply = entry.getKey().send(entry.getValue().bytes); //every request is out before any reply is awaited
+		}
+		final Map<T, U> result = new HashMap<T, U>(keys.size() * 2);
+		final long deadline = System.nanoTime() + timeoutNanos; //for all of the replies together
+		for(Map.Entry<Connection, Batch<T>> entry : batches.entrySet()) {
+			final Batch<T> batch = entry.getValue();
+			final Reply reply;
+			try {
+				reply = batch.reply.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			catch(ExecutionException e) {
+				if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+			catch(TimeoutException e) {
+				batch.reply.cancel(false); //which also makes the connection forget the request
+				throw new UncheckedIOException(new SocketTimeoutException("no reply from " + entry.getKey() + " in time"));
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for " + entry.getKey(), e);
+			}
+			misses.addAndGet(reply.misses);
+			for(int i = 0; i < reply.values.length; i++) {
+				final byte[] value = reply.values[i];
+				result.put(batch.keys.get(i), value == null ? null : valueSerializer.deserialize(ByteBuffer.wrap(value)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Changes how long a call waits for the servers to answer before it gives up.
+	 * @param duration the longest a <tt>get</tt> or <tt>getAll</tt> waits for its replies
+	 * @param unit the unit of the duration
+	 */
+	public void setTimeout (long duration, TimeUnit unit) {
+		if(duration < 1) {
+			throw new IllegalArgumentException("duration must be at least 1");
+		}
+		timeoutNanos = unit.toNanos(duration);
+	}
+
+	/**
+	 * Returns the number of misses the servers had on this client's requests.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return misses.get();
+	}
+
+	/**
+	 * Closes every connection. Requests still waiting for a reply fail.
+	 */
+	public void close () {
+		for(Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * The keys going to one server, and the reply once it is sent.
+	 */
+	private static class Batch<T> {
+		final public List<T> keys = new ArrayList<T>();
+		final public List<byte[]> bytes = new ArrayList<byte[]>();
+		public CompletableFuture<Reply> reply;
+		public void add(T key, byte[] serialized) {
+			keys.add(key);
+			bytes.add(serialized);
+		}
+	}
+
+	/**
+	 * A server's answer to one request.
+	 */
+	private static class Reply {
+		final public int misses;
+		final public byte[][] values;
+		public Reply(int misses, byte[][] values) {
+			this.misses = misses;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * A connection to one server, shared by every caller. When it breaks, the requests
+	 * waiting on it fail and the next request opens a new one. If that fails too, requests
+	 * fail straight away until a backoff has passed, which doubles with every failed attempt.
+	 */
+	private static class Connection {
+		final private static long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(50);
+		final private static long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(5);
+		final private String name;
+		final private InetSocketAddress address;
+		final private ReentrantLock writeLock; //also held to reconnect
+		final private Map<Integer, CompletableFuture<Reply>> pending;
+		final private AtomicInteger nextId;
+		private volatile SocketChannel channel; //null while disconnected
+		private volatile IOException failure;
+		private volatile boolean closed;
+		private long backoff; //guarded by writeLock
+		private long retryAt;
+
+		public Connection(InetSocketAddress address) throws IOException {
+			name = address.getHostString() + ":" + address.getPort();
+			this.address = address;
+			writeLock = new ReentrantLock();
+			pending = new ConcurrentHashMap<Integer, CompletableFuture<Reply>>();
+			nextId = new AtomicInteger();
+			closed = false;
+			backoff = MIN_BACKOFF;
+			retryAt = 0;
+			connect();
+		}
+
+		/**
+		 * Writes a request for the specified keys, reconnecting first if the connection broke.
+		 * @param keys The serialized keys
+		 * @return the reply, once it arrives
+		 */
+		public CompletableFuture<Reply> send(List<byte[]> keys) {
+			final int id = nextId.incrementAndGet();
+			final CompletableFuture<Reply> reply = new CompletableFuture<Reply>();
+			int length = 8;
+			for(byte[] key : keys) {
+				length += 4 + key.length;
+			}
+			if(length > CacheServer.MAX_FRAME) {
+				throw new IllegalArgumentException("too many keys for one request");
+			}
+			final ByteBuffer request = ByteBuffer.allocate(4 + length);
+			request.putInt(length).putInt(id).putInt(keys.size());
+			for(byte[] key : keys) {
+				request.putInt(key.length).put(key);
+			}
+			request.flip();
+			writeLock.lock();
+			try {
+				final SocketChannel current = reconnect();
+				if(current == null) {
+					reply.completeExceptionally(new UncheckedIOException(failure));
+					return reply;
+				}
+				synchronized(this) {
+					if(channel != current) {
+						reply.completeExceptionally(new UncheckedIOException(failure)); //the reader found it broken just now
+						return reply;
+					}
+					pending.put(id, reply); //so a failure of the channel from now on fails the request too
+				}
+				reply.whenComplete((answer, error) -> pending.remove(id)); //so a request given up on is not kept
+				try {
+					while(request.hasRemaining()) {
+						current.write(request);
+					}
+				}
+				catch(IOException e) {
+					fail(current, e);
+				}
+			}
+			finally {
+				writeLock.unlock();
+			}
+			return reply;
+		}
+
+		/**
+		 * Opens a new channel if the connection is broken and the backoff has passed. Must be
+		 * called with the write lock held.
+		 * @return the open channel, or null if there is none
+		 */
+		private SocketChannel reconnect() {
+			if(closed) {
+				failure = new IOException("the client is closed");
+				return null;
+			}
+			final SocketChannel current = channel;
+			if(current != null) {
+				return current;
+			}
+			final long now = System.nanoTime();
+			if(now - retryAt < 0) {
+				return null; //still backing off
+			}
+			try {
+				connect();
+				backoff = MIN_BACKOFF;
+				return channel;
+			}
+			catch(IOException e) {
+				failure = e;
+				retryAt = now + backoff;
+				backoff = Math.min(2 * backoff, MAX_BACKOFF);
+				return null;
+			}
+		}
+
+		/**
+		 * Opens a channel to the server and starts a thread reading its replies.
+		 * @throws IOException if the server cannot be reached
+		 */
+		private void connect() throws IOException {
+			final SocketChannel opened = SocketChannel.open(address);
+			opened.socket().setTcpNoDelay(true);
+			channel = opened;
+			final Thread reader = new Thread(() -> readReplies(opened), "cache-client-" + name);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		/**
+		 * Reads replies until the channel closes, completing each caller's future.
+		 * @param from The channel
+		 */
+		private void readReplies(SocketChannel from) {
+			final ByteBuffer header = ByteBuffer.allocate(4);
+			try {
+				while(true) {
+					header.clear();
+					readFully(from, header);
+					final int length = header.getInt(0);
+					if(length < 12 || length > CacheServer.MAX_FRAME) {
+						throw new IOException("bad reply length " + length);
+					}
+					final ByteBuffer frame = ByteBuffer.allocate(length);
+					readFully(from, frame);
+					frame.flip();
+					final int id = frame.getInt();
+					final int misses = frame.getInt();
+					final int count = frame.getInt();
+					final CompletableFuture<Reply> reply = pending.remove(id);
+					if(reply == null) {
+						continue; //the caller gave up waiting, or the id is not one of ours
+					}
+					if(count < 0) {
+						final byte[] message = new byte[frame.getInt()];
+						frame.get(message);
+						reply.completeExceptionally(new IllegalStateException("the cache server failed: " + new String(message, StandardCharsets.UTF_8)));
+						continue;
+					}
+					final byte[][] values = new byte[count][];
+					for(int i = 0; i < count; i++) {
+						final int valueLength = frame.getInt();
+						if(valueLength >= 0) {
+							values[i] = new byte[valueLength];
+							frame.get(values[i]);
+						}
+					}
+					reply.complete(new Reply(misses, values));
+				}
+			}
+			catch(IOException e) {
+				fail(from, e);
+			}
+			catch(RuntimeException e) {
+				fail(from, new IOException("malformed reply", e));
+			}
+		}
+
+		/**
+		 * Fills a buffer from a channel.
+		 * @param from The channel
+		 * @param buffer The buffer
+		 * @throws IOException if the channel fails or closes first
+		 */
+		private static void readFully(SocketChannel from, ByteBuffer buffer) throws IOException {
+			while(buffer.hasRemaining()) {
+				if(from.read(buffer) < 0) {
+					throw new EOFException("the cache server closed the connection");
+				}
+			}
+		}
+
+		/**
+		 * Marks the connection as broken, closes the channel and fails every request waiting
+		 * for a reply on it. Does nothing if the channel was already replaced. Requests are
+		 * registered under the same monitor, so none sent after a reconnect are failed.
+		 * @param failed The channel that broke
+		 * @param e What went wrong
+		 */
+		private void fail(SocketChannel failed, IOException e) {
+			final List<Integer> waiting;
+			synchronized(this) {
+				if(channel != failed) {
+					return;
+				}
+				failure = e;
+				channel = null;
+				waiting = new ArrayList<Integer>(pending.keySet()); //every request registered on the broken channel, and none on a later one
+			}
+			for(int id : waiting) {
+				fail(id, e);
+			}
+			closeQuietly(failed); //which also stops its reader
+		}
+
+		/**
+		 * Fails one request, if it is still waiting.
+		 * @param id The request's id
+		 * @param e What went wrong
+		 */
+		private void fail(int id, IOException e) {
+			final CompletableFuture<Reply> reply = pending.remove(id);
+			if(reply != null) {
+				reply.completeExceptionally(new UncheckedIOException(e));
+			}
+		}
+
+		public void close() {
+			closed = true;
+			final SocketChannel current = channel;
+			if(current != null) {
+				fail(current, new IOException("the client is closed"));
+			}
+		}
+
+		private static void closeQuietly(SocketChannel channel) {
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				//closing anyway
+			}
+		}
+
+		public String toString() {
+			return name; //what the ring hashes, the same in every client
+		}
+	}
+}
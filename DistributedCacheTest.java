@@ -0,0 +1,398 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Code to test a <tt>DistributedCache</tt> against <tt>CacheServer</tt>s on localhost.
+ */
+public class DistributedCacheTest {
+	final private static int SERVERS = 3;
+	final private static int SLOW_KEY = -2;
+	private List<CacheServer<Integer,String>> servers;
+	private List<InetSocketAddress> addresses;
+	private AtomicInteger[] loads;
+	private CountDownLatch started;
+	private CountDownLatch release;
+	private static class IntegerSerializer implements Serializer<Integer> {
+		public byte[] serialize(Integer value) {
+			return ByteBuffer.allocate(4).putInt(value).array();
+		}
+		public Integer deserialize(ByteBuffer bytes) {
+			return bytes.getInt(bytes.position());
+		}
+	}
+
+	/**
+	 * Tests that keys spread over every server, that a key one client loaded is a hit for
+	 * another, and that the servers together hold more than any one of them could.
+	 */
+	@Test
+	public void serversShareTheLoad() throws IOException {
+		try(DistributedCache<Integer,String> first = newClient(); DistributedCache<Integer,String> second = newClient()) {
+			for(int i = 0; i < 300; i++) {
+				assertEquals("" + i, first.get(i));
+			}
+			assertEquals(300, first.getNumMisses());
+			for(int i = 0; i < 300; i++) {
+				assertEquals("" + i, second.get(i)); //each server holds 150, more than its share
+			}
+			assertEquals(0, second.getNumMisses());
+			int total = 0;
+			for(AtomicInteger count : loads) {
+				assertTrue(count.get() > 50); //roughly a third each
+				total += count.get();
+			}
+			assertEquals(300, total); //every key was loaded exactly once
+		}
+	}
+
+	/**
+	 * Tests that <tt>getAll</tt> and many threads pipelining requests on the same
+	 * connections all get the right values.
+	 */
+	@Test
+	public void pipelinedRequestsGetTheirOwnReplies() throws Exception {
+		try(DistributedCache<Integer,String> client = newClient()) {
+			final List<Integer> keys = new ArrayList<Integer>();
+			for(int i = 0; i < 100; i++) {
+				keys.add(i);
+			}
+			final Map<Integer,String> values = client.getAll(keys);
+			assertEquals(100, values.size());
+			for(int i = 0; i < 100; i++) {
+				assertEquals("" + i, values.get(i));
+			}
+			assertNull(client.get(-1)); //the provider has nothing for negative keys
+			final Thread[] threads = new Thread[8];
+			final Map<Integer,String> wrong = new HashMap<Integer,String>();
+			for(int t = 0; t < threads.length; t++) {
+				final int offset = t;
+				threads[t] = new Thread(() -> {
+					for(int i = 0; i < 200; i++) {
+						final int key = (i * 7 + offset) % 150;
+						final String value = client.get(key);
+						if(!value.equals("" + key)) {
+							synchronized(wrong) {
+								wrong.put(key, value);
+							}
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			assertTrue(wrong.isEmpty());
+		}
+	}
+
+	/**
+	 * Tests that a load that takes a long time does not hold up requests for other keys, on
+	 * its own server or any other, nor a second request for the same key.
+	 */
+	@Test
+	public void slowLoadDoesNotHoldUpOtherRequests() throws Exception {
+		try(DistributedCache<Integer,String> client = newClient()) {
+			final List<Integer> keys = new ArrayList<Integer>();
+			for(int i = 0; i < 30; i++) {
+				keys.add(i);
+			}
+			final String[] slow = new String[2];
+			final Thread[] threads = new Thread[slow.length];
+			for(int t = 0; t < threads.length; t++) {
+				final int index = t;
+				threads[t] = new Thread(() -> slow[index] = client.get(SLOW_KEY));
+				threads[t].start();
+			}
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertEquals(30, client.getAll(keys).size()); //answered while the slow load runs
+			assertEquals(30, client.getNumMisses());
+			awaitSharedLoad(); //the second request has reached the server
+			release.countDown();
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(Arrays.asList(null, null), Arrays.asList(slow));
+			assertEquals(31, client.getNumMisses()); //the second request waited for the first one's load
+		}
+	}
+
+	/**
+	 * Tests that requests for a server that went away fail, and that the client reconnects
+	 * once the server is back on the same port.
+	 */
+	@Test
+	public void reconnectsToARestartedServer() throws Exception {
+		try(DistributedCache<Integer,String> client = newClient()) {
+			final List<Integer> keys = new ArrayList<Integer>();
+			for(int i = 0; i < 30; i++) {
+				keys.add(i);
+			}
+			assertEquals(30, client.getAll(keys).size());
+			final int port = servers.get(0).getAddress().getPort();
+			servers.get(0).close();
+			try {
+				client.getAll(keys);
+				fail("expected the requests for the stopped server to fail");
+			}
+			catch(UncheckedIOException e) {
+				//expected
+			}
+			final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(key -> "" + key, 150);
+			servers.set(0, new CacheServer<Integer,String>(cache, new IntegerSerializer(), new StringSerializer(), port));
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			Map<Integer,String> values = null;
+			while(values == null) {
+				try {
+					values = client.getAll(keys);
+				}
+				catch(UncheckedIOException e) {
+					assertTrue("never reconnected", System.nanoTime() - deadline < 0);
+					Thread.sleep(20); //backing off
+				}
+			}
+			for(int i = 0; i < 30; i++) {
+				assertEquals("" + i, values.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Tests that a request claiming more keys than it holds closes its own connection only.
+	 */
+	@Test
+	public void corruptRequestClosesOnlyItsConnection() throws IOException {
+		try(SocketChannel channel = SocketChannel.open(addresses.get(0)); DistributedCache<Integer,String> client = newClient()) {
+			final ByteBuffer request = ByteBuffer.allocate(12);
+			request.putInt(8).putInt(1).putInt(Integer.MAX_VALUE).flip();
+			while(request.hasRemaining()) {
+				channel.write(request);
+			}
+			assertEquals(-1, channel.read(ByteBuffer.allocate(4)));
+			for(int i = 0; i < 30; i++) {
+				assertEquals("" + i, client.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Tests that a server that takes the request but never answers fails it after the
+	 * timeout instead of blocking the caller for good.
+	 */
+	@Test
+	public void unansweredRequestTimesOut() throws IOException {
+		try(ServerSocketChannel silent = ServerSocketChannel.open()) {
+			silent.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final InetSocketAddress address = (InetSocketAddress) silent.getLocalAddress();
+			try(DistributedCache<Integer,String> client = new DistributedCache<Integer,String>(Arrays.asList(address), new IntegerSerializer(), new StringSerializer(), 100)) {
+				client.setTimeout(100, TimeUnit.MILLISECONDS);
+				try {
+					client.get(1);
+					fail("expected the request to time out");
+				}
+				catch(UncheckedIOException e) {
+					assertTrue(e.getCause() instanceof SocketTimeoutException);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that a reply that comes after its request timed out is skipped, and that the
+	 * connection goes on to deliver the next one.
+	 */
+	@Test
+	public void lateReplyIsSkipped() throws IOException {
+		try(ServerSocketChannel fake = ServerSocketChannel.open()) {
+			fake.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final InetSocketAddress address = (InetSocketAddress) fake.getLocalAddress();
+			try(DistributedCache<Integer,String> client = new DistributedCache<Integer,String>(Arrays.asList(address), new IntegerSerializer(), new StringSerializer(), 100); SocketChannel server = fake.accept()) {
+				client.setTimeout(100, TimeUnit.MILLISECONDS);
+				try {
+					client.get(1);
+					fail("expected the request to time out");
+				}
+				catch(UncheckedIOException e) {
+					//expected
+				}
+				writeReply(server, readRequestId(server), "late");
+				client.setTimeout(5, TimeUnit.SECONDS);
+				final Thread answer = new Thread(() -> {
+					try {
+						writeReply(server, readRequestId(server), "2");
+					}
+					catch(IOException e) {
+						//the client will time out
+					}
+				});
+				answer.start();
+				assertEquals("2", client.get(2));
+			}
+		}
+	}
+
+	/**
+	 * Tests that a server started with <tt>main</tt> runs as a process of its own and serves
+	 * a client in this one.
+	 */
+	@Test
+	public void serverRunsAsItsOwnProcess() throws Exception {
+		final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "CacheServer", "0", "100").redirectErrorStream(true).start();
+		try {
+			final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+			final String line = out.readLine(); //"serving on /127.0.0.1:PORT"
+			assertNotNull(line);
+			final int port = Integer.parseInt(line.substring(line.lastIndexOf(':') + 1));
+			final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+			try(DistributedCache<String,String> client = new DistributedCache<String,String>(Arrays.asList(address), new StringSerializer(), new StringSerializer(), 100)) {
+				assertEquals("a", client.get("a"));
+				assertEquals("a", client.get("a"));
+				assertEquals(1, client.getNumMisses());
+			}
+		}
+		finally {
+			process.destroy();
+			process.waitFor();
+		}
+	}
+
+	/**
+	 * Tests that adding a node to the ring only moves keys onto the new node.
+	 */
+	@Test
+	public void ringMovesFewKeys() {
+		final HashRing<String> ring = new HashRing<String>(Arrays.asList("a", "b", "c"), 100);
+		final Map<Integer,String> before = new HashMap<Integer,String>();
+		for(int i = 0; i < 10000; i++) {
+			before.put(i, ring.nodeFor(("" + i).getBytes(StandardCharsets.UTF_8)));
+		}
+		ring.add("d");
+		int moved = 0;
+		for(int i = 0; i < 10000; i++) {
+			final String node = ring.nodeFor(("" + i).getBytes(StandardCharsets.UTF_8));
+			if(!node.equals(before.get(i))) {
+				assertEquals("d", node);
+				moved++;
+			}
+		}
+		assertTrue(moved > 1500 && moved < 3500); //about a quarter
+	}
+
+	private static int readRequestId(SocketChannel channel) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(8);
+		readFully(channel, header);
+		readFully(channel, ByteBuffer.allocate(header.getInt(0) - 4)); //the rest of the request
+		return header.getInt(4);
+	}
+
+	private static void writeReply(SocketChannel channel, int id, String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer reply = ByteBuffer.allocate(20 + bytes.length);
+		reply.putInt(16 + bytes.length).putInt(id).putInt(0).putInt(1).putInt(bytes.length).put(bytes).flip();
+		while(reply.hasRemaining()) {
+			channel.write(reply);
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0) {
+				throw new IOException("closed");
+			}
+		}
+	}
+
+	private DistributedCache<Integer,String> newClient() throws IOException {
+		return new DistributedCache<Integer,String>(addresses, new IntegerSerializer(), new StringSerializer(), 100);
+	}
+
+	@Before
+	public void init() throws IOException {
+		servers = new ArrayList<CacheServer<Integer,String>>();
+		addresses = new ArrayList<InetSocketAddress>();
+		loads = new AtomicInteger[SERVERS];
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		for(int s = 0; s < SERVERS; s++) {
+			final AtomicInteger count = new AtomicInteger();
+			loads[s] = count;
+			final ConcurrentLRUCache<Integer,String> cache = new ConcurrentLRUCache<Integer,String>(key -> {
+				count.incrementAndGet();
+				if(key == SLOW_KEY) {
+					started.countDown();
+					awaitQuietly(release);
+				}
+				return key < 0 ? null : "" + key;
+			}, 150, 1); //one segment, so it holds exactly 150
+			final CacheServer<Integer,String> server = new CacheServer<Integer,String>(cache, new IntegerSerializer(), new StringSerializer(), 0);
+			servers.add(server);
+			addresses.add(server.getAddress());
+		}
+	}
+
+	/**
+	 * Waits, up to a deadline, until a server thread is waiting for a load another request
+	 * started.
+	 */
+	private static void awaitSharedLoad() {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(!waitingForALoad()) {
+			assertTrue("no request waited for the running load", System.nanoTime() - deadline < 0);
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return true if some thread is inside <tt>ConcurrentLRUCache.await</tt>
+	 */
+	private static boolean waitingForALoad() {
+		for(StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+			for(StackTraceElement frame : stack) {
+				if(frame.getClassName().equals("ConcurrentLRUCache") && frame.getMethodName().equals("await")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@After
+	public void shutDown() {
+		release.countDown();
+		for(CacheServer<Integer,String> server : servers) {
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Decides which entry an <tt>LRUCache</tt> throws away when it is full. The cache keeps its
+ * entries in its own map, and every entry is also a <tt>Node</tt> that the policy links into
+ * its own lists, so telling the policy about a hit costs no extra lookup. The cache decides
+ * when it is full; the policy only decides which entry goes. A policy serves one cache.
+ * <p>
+ * Iterating over a policy visits the cached entries from the one it would keep longest to
+ * the next one it would evict, roughly.
+ */
+interface EvictionPolicy<T> extends Iterable<EvictionPolicy.Node<T>> {
+	/**
+	 * Tells the policy how many entries the cache holds, so it can size its segments. Called
+	 * when the cache is created and whenever its capacity changes. For a weighed cache this
+	 * is the maximum weight, so the segments are only approximate.
+	 * @param capacity the capacity of the cache
+	 */
+	void setCapacity (long capacity);
+
+	/**
+	 * Records a lookup of an entry that is in the cache.
+	 * @param node the entry that was hit
+	 */
+	void recordHit (Node<T> node);
+
+	/**
+	 * Tells the policy that a key is about to be added, before the cache makes room for it.
+	 * Policies that remember evicted keys look the key up here.
+	 * @param key the key that missed
+	 */
+	default void prepareAdd (T key) {
+	}
+
+	/**
+	 * Adds a new entry, after the cache made room for it.
+	 * @param node the new entry
+	 */
+	void add (Node<T> node);
+
+	/**
+	 * Chooses an entry to throw away and takes it off the policy's lists.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	Node<T> evict ();
+
+	/**
+	 * Takes an entry off the policy's lists when it leaves the cache for any other reason
+	 * than <tt>evict</tt>, such as expiry or being replaced.
+	 * @param node the entry that left
+	 */
+	void remove (Node<T> node);
+
+	/**
+	 * An entry as the policy sees it. The cache's own entries extend this, so the policy's
+	 * lists are threaded through them and need no nodes of their own.
+	 */
+	abstract class Node<T> {
+		final public T key;
+		Node<T> before; //towards the front of whichever list holds the node
+		Node<T> after;
+		int queue; //which of the policy's lists holds the node
+		boolean referenced;
+
+		/**
+		 * @param key the entry's key
+		 */
+		protected Node (T key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * A doubly linked list of nodes with a sentinel, so adding and removing anywhere is O(1).
+	 * The front holds the newest or most recently used node, the back the oldest.
+	 */
+	class NodeList<T> implements Iterable<Node<T>> {
+		final private Node<T> head; //head.after is the front, head.before the back
+		private int size;
+
+		NodeList () {
+			head = new Node<T>(null) {};
+			head.before = head;
+			head.after = head;
+			size = 0;
+		}
+
+		/**
+		 * Adds a node at the front.
+		 * @param node The node, which must not be in any list
+		 */
+		void addFirst(Node<T> node) {
+			addBefore(node, head.after);
+		}
+
+		/**
+		 * Adds a node at the back.
+		 * @param node The node, which must not be in any list
+		 */
+		void addLast(Node<T> node) {
+			addBefore(node, head);
+		}
+
+		/**
+		 * Adds a node in front of another one.
+		 * @param node The node, which must not be in any list
+		 * @param at The node to add it in front of, which must be in this list
+		 */
+		void addBefore(Node<T> node, Node<T> at) {
+			node.after = at;
+			node.before = at.before;
+			at.before.after = node;
+			at.before = node;
+			size++;
+		}
+
+		/**
+		 * Takes a node out of the list.
+		 * @param node The node, which must be in this list
+		 */
+		void remove(Node<T> node) {
+			node.before.after = node.after;
+			node.after.before = node.before;
+			node.before = null;
+			node.after = null;
+			size--;
+		}
+
+		/**
+		 * Moves a node to the front.
+		 * @param node The node, which must be in this list
+		 */
+		void moveToFront(Node<T> node) {
+			remove(node);
+			addFirst(node);
+		}
+
+		/**
+		 * Takes the back node out of the list.
+		 * @return the node that was at the back, or null if the list is empty
+		 */
+		Node<T> pollLast() {
+			if(size == 0) {
+				return null;
+			}
+			final Node<T> last = head.before;
+			remove(last);
+			return last;
+		}
+
+		/**
+		 * Returns the node behind another one, going round to the front after the back.
+		 * @param node The node, which must be in this list
+		 * @return the next node towards the back, or the front node
+		 */
+		Node<T> next(Node<T> node) {
+			return node.after == head ? head.after : node.after;
+		}
+
+		/**
+		 * Returns the front node.
+		 * @return the front node, or null if the list is empty
+		 */
+		Node<T> first() {
+			return size == 0 ? null : head.after;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Iterates from the front to the back.
+		 */
+		public Iterator<Node<T>> iterator() {
+			return new Iterator<Node<T>>() {
+				private Node<T> next = head.after;
+				public boolean hasNext() {
+					return next != head;
+				}
+				public Node<T> next() {
+					if(next == head) {
+						throw new NoSuchElementException();
+					}
+					final Node<T> node = next;
+					next = node.after;
+					return node;
+				}
+			};
+		}
+
+		/**
+		 * Iterates over one list and then another.
+		 * @param first The list to iterate first
+		 * @param second The list to iterate next
+		 * @return an iterator over both lists
+		 */
+		static <T> Iterator<Node<T>> concat(NodeList<T> first, NodeList<T> second) {
+			final Iterator<Node<T>> a = first.iterator();
+			final Iterator<Node<T>> b = second.iterator();
+			return new Iterator<Node<T>>() {
+				public boolean hasNext() {
+					return a.hasNext() || b.hasNext();
+				}
+				public Node<T> next() {
+					return a.hasNext() ? a.next() : b.next();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,200 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Code to test an <tt>LRUCache</tt> with each <tt>EvictionPolicy</tt>.
+ */
+public class EvictionPolicyTest {
+	private static final int CAPACITY = 20;
+	private Provider provider;
+	private static class Provider implements DataProvider<Integer,String> {
+		public int fetches = 0;
+		public String get(Integer key) {
+			fetches++;
+			return "" + key;
+		}
+	}
+
+	/**
+	 * @return one fresh policy of every kind
+	 */
+	private static List<EvictionPolicy<Integer>> allPolicies() {
+		final List<EvictionPolicy<Integer>> policies = new ArrayList<EvictionPolicy<Integer>>();
+		policies.add(new LRUPolicy<Integer>());
+		policies.add(new ClockPolicy<Integer>());
+		policies.add(new SLRUPolicy<Integer>());
+		policies.add(new TwoQueuePolicy<Integer>());
+		policies.add(new ARCPolicy<Integer>());
+		return policies;
+	}
+
+	/**
+	 * Every policy should return the right values, count each fetch as a miss, and never
+	 * refetch a working set that fits.
+	 */
+	@Test
+	public void everyPolicyDoesNotRefetchUnnecessarily() {
+		for(EvictionPolicy<Integer> policy : allPolicies()) {
+			final Provider counting = new Provider();
+			final Cache<Integer,String> cache = new LRUCache<Integer,String>(counting, CAPACITY, policy);
+			for(int pass = 0; pass < 10; pass++) {
+				for(int i = 0; i < CAPACITY; i++) {
+					assertEquals("" + i, cache.get(i));
+				}
+			}
+			assertEquals(policy.getClass().getName(), CAPACITY, counting.fetches);
+			assertEquals(CAPACITY, cache.getNumMisses());
+		}
+	}
+
+	/**
+	 * Every policy should keep at most the capacity: after a random workload, exactly
+	 * CAPACITY of the keys should still be cached.
+	 */
+	@Test
+	public void everyPolicyRespectsCapacity() {
+		for(EvictionPolicy<Integer> policy : allPolicies()) {
+			final Provider counting = new Provider();
+			final Cache<Integer,String> cache = new LRUCache<Integer,String>(counting, CAPACITY, policy);
+			for(int i = 0; i < 5000; i++) {
+				final int key = (i * 7919) % 97;
+				assertEquals("" + key, cache.get(key));
+			}
+			assertEquals(counting.fetches, cache.getNumMisses());
+			int cached = 0;
+			for(int key = 0; key < 97; key++) {
+				final int misses = cache.getNumMisses();
+				cache.get(key);
+				if(cache.getNumMisses() == misses) {
+					cached++;
+				}
+			}
+			assertTrue(policy.getClass().getName(), cached <= CAPACITY);
+		}
+	}
+
+	/**
+	 * Entries that leave the cache other than by eviction, or are replaced, should be taken
+	 * off the policy's lists too, so the policy never hands back an entry that is gone.
+	 */
+	@Test
+	public void everyPolicyForgetsRemovedEntries() {
+		for(EvictionPolicy<Integer> policy : allPolicies()) {
+			final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(provider, CAPACITY, policy);
+			for(int i = 0; i < 5000; i++) {
+				final int key = (i * 7919) % 61;
+				if(i % 7 == 0) {
+					cache.invalidate(key);
+				}
+				else if(i % 5 == 0) {
+					cache.put(key, "" + key);
+				}
+				else {
+					assertEquals("" + key, cache.get(key));
+				}
+				assertTrue(policy.getClass().getName(), cache.getTotalWeight() <= CAPACITY);
+			}
+			int listed = 0;
+			for(EvictionPolicy.Node<Integer> node : policy) {
+				assertTrue(cache.containsKey(node.key));
+				listed++;
+			}
+			assertEquals(policy.getClass().getName(), cache.getTotalWeight(), listed);
+		}
+	}
+
+	/**
+	 * A CLOCK hit only sets the reference bit, which gives the key a second chance when the
+	 * hand comes round.
+	 */
+	@Test
+	public void clockGivesSecondChance() {
+		final Cache<Integer,String> cache = new LRUCache<Integer,String>(provider, 3, new ClockPolicy<Integer>());
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(1); //set 1's reference bit
+		cache.get(4); //hand skips 1 and clears its bit, get rid of 2 for 4
+		assertEquals(4, cache.getNumMisses());
+		cache.get(1);
+		cache.get(3);
+		assertEquals(4, cache.getNumMisses());
+		cache.get(2);
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	/**
+	 * Looping over one key more than fits is LRU's worst case, every lookup misses. CLOCK,
+	 * SLRU and ARC never see a hit either, so they do no better. 2Q remembers the keys its
+	 * FIFO queue pushed out and keeps part of the loop cached in its main list.
+	 */
+	@Test
+	public void loopPatternBeatsLRU() {
+		final int[] misses = new int[allPolicies().size()];
+		int p = 0;
+		for(EvictionPolicy<Integer> policy : allPolicies()) {
+			final Cache<Integer,String> cache = new LRUCache<Integer,String>(provider, CAPACITY, policy);
+			for(int pass = 0; pass < 50; pass++) {
+				for(int i = 0; i <= CAPACITY; i++) {
+					cache.get(i);
+				}
+			}
+			misses[p++] = cache.getNumMisses();
+		}
+		assertEquals(50 * (CAPACITY + 1), misses[0]); //LRU
+		assertTrue(misses[3] < misses[0] / 2); //2Q
+	}
+
+	/**
+	 * A one-off scan should not flush keys that the scan-resistant policies know are hot.
+	 */
+	@Test
+	public void scanResistantPoliciesKeepHotKeys() {
+		final List<EvictionPolicy<Integer>> policies = new ArrayList<EvictionPolicy<Integer>>();
+		policies.add(new SLRUPolicy<Integer>());
+		policies.add(new TwoQueuePolicy<Integer>());
+		policies.add(new ARCPolicy<Integer>());
+		for(EvictionPolicy<Integer> policy : policies) {
+			final Cache<Integer,String> cache = new LRUCache<Integer,String>(provider, CAPACITY, policy);
+			for(int pass = 0; pass < 3; pass++) {
+				for(int i = 0; i < 10; i++) {
+					cache.get(i); //hot keys
+				}
+				for(int i = 0; i < 10; i++) {
+					cache.get(500 + pass * 10 + i); //some cold keys in between, so 2Q sees the hot keys come back
+				}
+			}
+			for(int i = 1000; i < 1100; i++) {
+				cache.get(i); //scan
+			}
+			final int before = cache.getNumMisses();
+			for(int i = 0; i < 10; i++) {
+				cache.get(i);
+			}
+			assertEquals(policy.getClass().getName(), before, cache.getNumMisses());
+		}
+	}
+
+	/**
+	 * ARC should bound its ghost lists by the number of cached entries, not by a capacity
+	 * counted in weight: ten heavy entries fill this cache, so it should remember no more
+	 * than twenty ghost keys, however many keys it has evicted.
+	 */
+	@Test
+	public void arcGhostsAreBoundedByEntries() {
+		final ARCPolicy<Integer> policy = new ARCPolicy<Integer>();
+		final Cache<Integer,String> cache = new LRUCache<Integer,String>(provider, (key, value) -> 1000, 10000, policy);
+		for(int i = 0; i < 100000; i++) {
+			cache.get(i);
+		}
+		assertTrue("" + policy.getGhostCount(), policy.getGhostCount() <= 20);
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
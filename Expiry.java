@@ -0,0 +1,62 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a cache how long each entry may live. Durations are in nanoseconds, and
+ * <tt>Long.MAX_VALUE</tt> means the entry never expires.
+ */
+interface Expiry<T, U> {
+	/**
+	 * Returns how long a freshly loaded entry may live.
+	 * @param key the key
+	 * @param value the value that was loaded for the key
+	 * @return the time to live, in nanoseconds
+	 */
+	long expireAfterWrite (T key, U value);
+
+	/**
+	 * Returns how long an entry may live from now on, after it was read.
+	 * @param key the key
+	 * @param value the value associated with the key
+	 * @param remaining how long the entry had left to live before this read, in nanoseconds
+	 * @return the time to live, in nanoseconds; <tt>remaining</tt> leaves it unchanged
+	 */
+	long expireAfterAccess (T key, U value, long remaining);
+
+	/**
+	 * Returns an expiry under which every entry lives for a fixed time after it is loaded,
+	 * however often it is read.
+	 * @param duration how long entries live
+	 * @param unit the unit of the duration
+	 * @return the expiry
+	 */
+	static <T, U> Expiry<T, U> afterWrite (long duration, TimeUnit unit) {
+		final long nanos = unit.toNanos(duration);
+		return new Expiry<T, U>() {
+			public long expireAfterWrite (T key, U value) {
+				return nanos;
+			}
+			public long expireAfterAccess (T key, U value, long remaining) {
+				return remaining;
+			}
+		};
+	}
+
+	/**
+	 * Returns an expiry under which every entry lives for a fixed time after it was last
+	 * loaded or read.
+	 * @param duration how long entries live without being read
+	 * @param unit the unit of the duration
+	 * @return the expiry
+	 */
+	static <T, U> Expiry<T, U> afterAccess (long duration, TimeUnit unit) {
+		final long nanos = unit.toNanos(duration);
+		return new Expiry<T, U>() {
+			public long expireAfterWrite (T key, U value) {
+				return nanos;
+			}
+			public long expireAfterAccess (T key, U value, long remaining) {
+				return nanos;
+			}
+		};
+	}
+}
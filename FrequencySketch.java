@@ -0,0 +1,130 @@
+/*
+ * Derived from FrequencySketch in Caffeine (https://github.com/ben-manes/caffeine),
+ * Copyright 2015 Ben Manes. All Rights Reserved. Changed from the original: rewritten
+ * for this cache's key type and coding style, with its own hashing and sizing.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A count-min sketch that estimates how often each key has been seen recently, in a fixed
+ * amount of memory no matter how many distinct keys pass through it. Counters are 4 bits
+ * wide, sixteen to a <tt>long</tt>, and each key is counted in four of them; its estimate
+ * is the smallest of the four. Once as many increments as ten times the cache size have
+ * been recorded every counter is halved, so popularity that is no longer current fades away.
+ */
+public class FrequencySketch<T> {
+	final private static long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	final private static long ONE_MASK = 0x1111111111111111L;
+	final private static long RESET_MASK = 0x7777777777777777L;
+	final private static int MAX_COUNT = 15;
+	final private long[] table;
+	final private int sampleSize;
+	private int additions;
+
+	/**
+	 * @param capacity the number of entries in the cache the sketch serves
+	 */
+	public FrequencySketch (int capacity) {
+		final int size = Math.max(1, capacity);
+		table = new long[Math.max(8, Integer.highestOneBit(size - 1) << 1)]; //a power of two, at least the capacity
+		sampleSize = 10 * size;
+		additions = 0;
+	}
+
+	/**
+	 * Returns the estimated number of recent occurrences of the specified key, up to 15.
+	 * @param key the key
+	 * @return the estimated frequency of the key
+	 */
+	public int frequency (T key) {
+		final int hash = spread(key);
+		final int start = (hash & 3) << 2; //which group of four counters the key uses in each long
+		int frequency = MAX_COUNT;
+		for(int i = 0; i < 4; i++) {
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an occurrence of the specified key, aging every counter once enough
+	 * occurrences have been recorded.
+	 * @param key the key
+	 */
+	public void increment (T key) {
+		final int hash = spread(key);
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for(int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if(added && ++additions == sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Adds one to a counter unless it is already at its maximum.
+	 * @param i The index of the long holding the counter
+	 * @param j The counter within the long
+	 * @return true if the counter was increased
+	 */
+	private boolean incrementAt(int i, int j) {
+		final int offset = j << 2;
+		final long mask = (0xfL << offset);
+		if((table[i] & mask) != mask) {
+			table[i] += (1L << offset);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Halves every counter. Counters that were odd lose their remainder, which is taken off
+	 * the number of additions too so that the next reset comes on time.
+	 */
+	private void reset() {
+		int odd = 0;
+		for(int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions = (additions >>> 1) - (odd >>> 2);
+	}
+
+	/**
+	 * Picks the long that holds the specified key's counter for one of the four hashes.
+	 * @param hash The spread hash of the key
+	 * @param i Which of the four hashes
+	 * @return the index into the table
+	 */
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += (h >>> 32);
+		return ((int) h) & (table.length - 1);
+	}
+
+	/**
+	 * Mixes the bits of a key's hash code.
+	 * @param key The key
+	 * @return the spread hash
+	 */
+	private static int spread(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h = ((h >>> 16) ^ h) * 0x45d9f3b;
+		h = ((h >>> 16) ^ h) * 0x45d9f3b;
+		return (h >>> 16) ^ h;
+	}
+}
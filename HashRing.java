@@ -0,0 +1,85 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spreads keys over a set of nodes by consistent hashing. Every node is placed on a ring of
+ * 64-bit hashes at several points, its virtual nodes, and a key belongs to the first node
+ * at or after its own hash. Adding or removing a node only moves the keys next to its
+ * points, about <tt>1/n</tt> of them, and more virtual nodes even out the share each node
+ * gets. Keys are hashed by their serialized bytes and nodes by <tt>toString</tt>, so
+ * clients in different processes agree on where a key lives.
+ */
+public class HashRing<N> {
+	final private TreeMap<Long, N> ring;
+	final private int virtualNodes;
+
+	/**
+	 * @param nodes the nodes to spread keys over
+	 * @param virtualNodes the number of points each node has on the ring
+	 */
+	public HashRing (Collection<N> nodes, int virtualNodes) {
+		if(virtualNodes < 1) {
+			throw new IllegalArgumentException("virtualNodes must be at least 1");
+		}
+		ring = new TreeMap<Long, N>();
+		this.virtualNodes = virtualNodes;
+		for(N node : nodes) {
+			add(node);
+		}
+	}
+
+	/**
+	 * Places a node on the ring, taking over the keys just before each of its points.
+	 * @param node the node
+	 */
+	public void add (N node) {
+		for(int i = 0; i < virtualNodes; i++) {
+			ring.put(hash((node + "#" + i).getBytes(StandardCharsets.UTF_8)), node);
+		}
+	}
+
+	/**
+	 * Takes a node off the ring, handing its keys to the nodes after its points.
+	 * @param node the node
+	 */
+	public void remove (N node) {
+		for(int i = 0; i < virtualNodes; i++) {
+			ring.remove(hash((node + "#" + i).getBytes(StandardCharsets.UTF_8)), node);
+		}
+	}
+
+	/**
+	 * Returns the node that the specified key belongs to.
+	 * @param key the serialized key
+	 * @return the node, or null if the ring is empty
+	 */
+	public N nodeFor (byte[] key) {
+		if(ring.isEmpty()) {
+			return null;
+		}
+		final Map.Entry<Long, N> entry = ring.ceilingEntry(hash(key));
+		return entry == null ? ring.firstEntry().getValue() : entry.getValue(); //wrap around
+	}
+
+	/**
+	 * Hashes bytes to 64 bits with FNV-1a, then mixes the result so that similar keys
+	 * land far apart on the ring.
+	 * @param bytes The bytes
+	 * @return the hash
+	 */
+	private static long hash(byte[] bytes) {
+		long h = 0xcbf29ce484222325L;
+		for(byte b : bytes) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
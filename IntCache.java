@@ -0,0 +1,10 @@
+/**
+ * A cache that associates <tt>int</tt> keys with values, without boxing the keys.
+ */
+interface IntCache<U> extends IntDataProvider<U> {
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	int getNumMisses ();
+}
@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Code to test the <tt>IntLRUCache</tt> implementation.
+ */
+public class IntLRUCacheTest {
+	private Provider provider;
+	private static class Provider implements IntDataProvider<String> {
+		public int fetches = 0;
+		public String get(int key) {
+			fetches++;
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Same walk as <tt>CacheTest.cacheProvidingIsCorrect</tt>.
+	 */
+	@Test
+	public void cacheProvidingIsCorrect() {
+		final IntLRUCache<String> cache = new IntLRUCache<String>(provider, 3);
+		assertEquals("1", cache.get(1));
+		assertEquals("2", cache.get(2));
+		assertEquals("3", cache.get(3));
+		assertEquals(3, cache.getNumMisses());
+		assertEquals("4", cache.get(4)); //get rid of 1 for 4
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("2", cache.get(2)); //get 2, doesn't need to provide
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("5", cache.get(5)); //get rid of 3 for 5
+		assertEquals(5, cache.getNumMisses());
+		assertEquals("2", cache.get(2));
+		assertEquals("5", cache.get(5));
+		assertEquals("4", cache.get(4));
+		assertEquals(5, cache.getNumMisses());
+		assertEquals("1", cache.get(1)); //1 was evicted
+		assertEquals(6, provider.fetches);
+	}
+
+	/**
+	 * Pushes many colliding and evicted keys through a small index to exercise probing and
+	 * deletion, checking the result against the expected LRU contents after every call.
+	 */
+	@Test
+	public void evictionKeepsIndexConsistent() {
+		final IntLRUCache<String> cache = new IntLRUCache<String>(provider, 7);
+		for(int i = 0; i < 10000; i++) {
+			final int key = (i * 37) % 50 - 25; //negative keys too
+			assertEquals("" + key, cache.get(key));
+		}
+		final int misses = cache.getNumMisses();
+		for(int i = 0; i < 7; i++) {
+			cache.get(9999 + i); //fill with fresh keys
+		}
+		for(int i = 0; i < 7; i++) {
+			cache.get(9999 + i); //all hits now
+		}
+		assertEquals(misses + 7, cache.getNumMisses());
+		assertEquals(provider.fetches, cache.getNumMisses());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroCapacity() {
+		new IntLRUCache<String>(provider, 0);
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
@@ -1,30 +1,146 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * An implementation of <tt>Cache</tt> that uses a least-recently-used (LRU)
- * eviction policy.
+ * eviction policy, or any other <tt>EvictionPolicy</tt> given to the constructor. The
+ * policy links the cache's own entries into its lists, so a hit costs one map lookup
+ * whichever policy is used. The cache either holds a fixed number of entries, or, given a
+ * <tt>Weigher</tt>, entries up to a maximum total weight. Given an <tt>Expiry</tt>, entries
+ * also expire after a time, and are cleared out by a <tt>TimerWheel</tt> as <tt>get</tt> is called.
+ * Entries can also be refreshed in the background once they reach a certain age, and
+ * statistics are recorded once the cache is given a <tt>StatsCounter</tt>. The contents can be
+ * written to a file with <tt>snapshot</tt> and read back with <tt>restore</tt>, and a
+ * <tt>ShardsSampler</tt> can watch the lookups to estimate the miss ratio at other capacities.
+ * The capacity can be changed at any time with <tt>setCapacity</tt>. With negative caching on,
+ * keys the provider has no value for are remembered apart from the real entries. Values can
+ * also be held softly or weakly, so the garbage collector may take them back when memory
+ * runs short; the emptied entries are cleared out as <tt>get</tt> is called. Values can be
+ * written with <tt>put</tt>, and given a <tt>CacheWriter</tt> every write also goes to the backend.
  * @author Ravi Kirschner
  * @author Noah Darveau
  */
-public class LRUCache<T, U> implements Cache<T, U> {
+public class LRUCache<T, U> implements WritableCache<T, U> {
+	/**
+	 * How strongly the cache holds on to its values.
+	 */
+	public enum ValueStrength {
+		/** Values stay until they are evicted. */
+		STRONG,
+		/** Values may be collected when the heap runs short, least recently used first. */
+		SOFT,
+		/** Values may be collected as soon as nothing outside the cache uses them. */
+		WEAK
+	}
+	final private static int SNAPSHOT_MAGIC = 0x4c525543; //"LRUC"
+	final private static int SNAPSHOT_VERSION = 1;
+	final private static int NULL_LENGTH = -1;
+	final private static int END_OF_SNAPSHOT = -2;
+	final private static int RESIZE_STEP = 16; //most extra evictions per call while shrinking
+	final static Object MISS = new Object(); //what getIfPresent returns for a key it has to load
 	final private Map<T, CachedObject> cache;
 	final private DataProvider<T,U> provider;
-	private int capacity;
+	private DataProvider<T,U> loader; //the provider as seen through the writer's pending writes
+	final private Weigher<T,U> weigher;
+	private long maxWeight;
+	private long totalWeight;
 	private int timesMissed;
-	private CachedObject front;
-	private CachedObject back;
+	private Expiry<T,U> expiry;
+	private LongSupplier ticker;
+	private TimerWheel wheel;
+	private long refreshNanos;
+	private Executor refreshExecutor;
+	private int refreshFailures;
+	private Throwable lastRefreshFailure;
+	private StatsCounter stats;
+	private ShardsSampler<T> sampler;
+	private LinkedHashMap<T, Long> absent; //keys the provider returned null for, and when that is forgotten
+	private int maxAbsent;
+	private long absentNanos;
+	private ValueStrength valueStrength;
+	private ReferenceQueue<U> collected; //values the garbage collector took back, null if values are held strongly
+	private CacheWriter<T,U> writer;
+	private LinkedHashMap<T, CachedObject> stale; //expired entries kept for serving stale, oldest first
+	private int maxStale;
+	final private EvictionPolicy<T> policy;
 	/**
 	 * @param provider the data provider to consult for a cache miss
 	 * @param capacity the exact number of (key,value) pairs to store in the cache
 	 */
 	public LRUCache (DataProvider<T, U> provider, int capacity) {
-		cache = new HashMap<T,CachedObject>(capacity);
+		this(provider, capacity, new LRUPolicy<T>());
+	}
+	
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @param policy decides which entry to evict, and must not be used by another cache
+	 */
+	public LRUCache (DataProvider<T, U> provider, int capacity, EvictionPolicy<T> policy) {
+		this(provider, (key, value) -> 1, capacity, capacity, policy); //every entry weighs one
+	}
+	
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param weigher the weigher that tells how much of the capacity each entry takes up
+	 * @param maxWeight the most total weight of (key,value) pairs to store in the cache
+	 */
+	public LRUCache (DataProvider<T, U> provider, Weigher<T, U> weigher, long maxWeight) {
+		this(provider, weigher, maxWeight, new LRUPolicy<T>());
+	}
+	
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param weigher the weigher that tells how much of the capacity each entry takes up
+	 * @param maxWeight the most total weight of (key,value) pairs to store in the cache
+	 * @param policy decides which entry to evict, and must not be used by another cache
+	 */
+	public LRUCache (DataProvider<T, U> provider, Weigher<T, U> weigher, long maxWeight, EvictionPolicy<T> policy) {
+		this(provider, weigher, maxWeight, 16, policy);
+	}
+	
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param weigher the weigher that tells how much of the capacity each entry takes up
+	 * @param maxWeight the most total weight of (key,value) pairs to store in the cache
+	 * @param expectedSize the number of entries to size the map for
+	 * @param policy decides which entry to evict
+	 */
+	private LRUCache (DataProvider<T, U> provider, Weigher<T, U> weigher, long maxWeight, int expectedSize, EvictionPolicy<T> policy) {
+		cache = new HashMap<T,CachedObject>(expectedSize);
 		this.provider = provider;
-		this.capacity = capacity;
+		loader = provider;
+		this.weigher = weigher;
+		this.maxWeight = maxWeight;
+		totalWeight = 0;
 		timesMissed = 0;
-		front = null;
-		back = null;
+		valueStrength = ValueStrength.STRONG;
+		this.policy = policy;
+		policy.setCapacity(maxWeight);
 	}
 	
 	/**
@@ -32,68 +148,718 @@ public class LRUCache<T, U> implements Cache<T, U> {
 	 * @param key the key
 	 * @return the value associated with the key
 	 */
+	@SuppressWarnings("unchecked")
 	public U get (T key) {
-		if(cache.containsKey(key)) {
+		final Object hit = getIfPresent(key);
+		if(hit != MISS) {
+			return (U) hit;
+		}
+		final U value;
+		try {
+			value = load(key);
+		}
+		catch(LoadRejectedException e) {
+			return serveStale(key, e); //the backend is too busy, so an expired value will have to do
+		}
+		return addLoaded(key, value); //otherwise ask the provider and cache its answer
+	}
+	
+	/**
+	 * Looks a key up without loading it. A hit counts as one, just like in <tt>get</tt>; an
+	 * entry that has expired or was collected is cleared out, and nothing is counted for a
+	 * miss, which the caller loads and hands to <tt>addLoaded</tt>. Used by wrappers that
+	 * call the provider outside of this cache.
+	 * @param key the key
+	 * @return the value associated with the key, or <tt>MISS</tt> if it has to be loaded
+	 */
+	Object getIfPresent (T key) {
+		if(sampler != null) sampler.record(key);
+		if(collected != null) drainCollected();
+		if(totalWeight > maxWeight) shrinkStep();
+		final long now = advance();
+		final CachedObject ret = cache.get(key);
+		final U old = ret == null ? null : ret.value(); //held strongly from here on, so it cannot be collected midway
+		if(ret != null) {
+			if(!isExpired(ret, now) && !isCollected(ret, old)) {
+				policy.recordHit(ret);
+				accessed(ret, old, now);
+				if(stats != null) stats.recordHit();
+				return refresh(ret, old, now);
+				//if cache already contains the key, tell the policy about the hit and return
+			}
+			removeEntry(ret); //expired or collected, so it counts as a miss and is reloaded below
+			if(!isCollected(ret, old)) {
+				retainStale(ret);
+			}
+		}
+		else if(absent != null && isKnownAbsent(key, now)) {
+			if(stats != null) stats.recordHit();
+			return null; //the provider said recently that it has nothing for this key
+		}
+		return MISS;
+	}
+	
+	/**
+	 * Starts recording hits, misses, evictions and load times into the specified counter.
+	 * Several caches may share one counter.
+	 * @param stats the counter, or null to stop recording
+	 */
+	public void setStatsCounter (StatsCounter stats) {
+		this.stats = stats;
+	}
+	
+	/**
+	 * Changes the number of (key,value) pairs the cache holds, or for a weighed cache the
+	 * most total weight. See <tt>setMaxWeight</tt>.
+	 * @param capacity the new capacity
+	 */
+	public void setCapacity (int capacity) {
+		setMaxWeight(capacity);
+	}
+	
+	/**
+	 * Changes the most total weight the cache holds. Growing takes effect at once. Shrinking
+	 * does not evict anything here: each later lookup evicts up to 16 entries until the
+	 * cache fits, and until then a miss evicts at least as much as it adds, so no
+	 * single call stalls on a large eviction.
+	 * @param maxWeight the new maximum total weight
+	 */
+	public void setMaxWeight (long maxWeight) {
+		if(maxWeight < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.maxWeight = maxWeight;
+		policy.setCapacity(maxWeight);
+	}
+	
+	/**
+	 * Remembers the keys the provider returns null for, so that lookups of keys that do not
+	 * exist neither reach the provider every time nor push real entries out. These keys are
+	 * kept apart from the real entries, up to <tt>maxEntries</tt> of them with the oldest
+	 * dropped first, and are forgotten after the specified time so that a key that comes
+	 * into existence is seen soon. They do not count towards the capacity. Time is measured
+	 * with the ticker given to <tt>setExpiry</tt>, or <tt>System.nanoTime</tt> if there is none.
+	 * @param maxEntries the most absent keys to remember
+	 * @param duration how long to remember that a key is absent
+	 * @param unit the unit of the duration
+	 */
+	public void setNegativeCaching (int maxEntries, long duration, TimeUnit unit) {
+		if(maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		maxAbsent = maxEntries;
+		absentNanos = unit.toNanos(duration);
+		absent = new LinkedHashMap<T, Long>();
+		if(ticker == null) {
+			ticker = System::nanoTime;
+		}
+	}
+	
+	/**
+	 * Returns the number of absent keys remembered, some of which may have expired.
+	 * @return the number of keys in the negative cache
+	 */
+	public int getNegativeSize () {
+		return absent == null ? 0 : absent.size();
+	}
+	
+	/**
+	 * Starts feeding every lookup to the specified sampler, whose miss-ratio curve then
+	 * shows how the hit rate would change with the capacity.
+	 * @param sampler the sampler, or null to stop sampling
+	 */
+	public void setSampler (ShardsSampler<T> sampler) {
+		this.sampler = sampler;
+	}
+	
+	/**
+	 * Changes how strongly values are held from now on; entries already in the cache keep
+	 * theirs. With soft or weak values the heap becomes an elastic budget: give the cache a
+	 * generous capacity and let the garbage collector take values back under memory
+	 * pressure. An entry whose value was collected is cleared out by a later <tt>get</tt>
+	 * and counts as a miss when its key is looked up again. Until then it still counts
+	 * towards the capacity. Null values are always held strongly.
+	 * @param valueStrength how to hold values
+	 */
+	public void setValueStrength (ValueStrength valueStrength) {
+		this.valueStrength = valueStrength;
+		if(valueStrength != ValueStrength.STRONG && collected == null) {
+			collected = new ReferenceQueue<U>();
+		}
+	}
+	
+	/**
+	 * Keeps the values of expired entries after they are cleared out, so that when the
+	 * provider turns a reload down with a <tt>LoadRejectedException</tt> that allows stale
+	 * values, as a <tt>BoundedLoader</tt> does with <tt>setServeStale</tt>, the expired value
+	 * is handed back instead. An expired value stays until a reload of its key succeeds, the
+	 * key is written or invalidated, or newer ones push it out; it does not count towards the
+	 * capacity and is never served as a hit.
+	 * @param maxEntries the most expired values to keep
+	 */
+	public void setStaleRetention (int maxEntries) {
+		if(maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		maxStale = maxEntries;
+		if(stale == null) {
+			stale = new LinkedHashMap<T, CachedObject>();
+		}
+	}
+	
+	/**
+	 * Passes every <tt>put</tt> and <tt>invalidate</tt> on to the specified writer before
+	 * the cache changes, so a write that fails leaves the cache as it was. The writer is
+	 * called on the caller's thread; wrap it in a <tt>WriteBehindWriter</tt> to write in
+	 * the background instead. Misses are loaded through the writer's <tt>readThrough</tt>,
+	 * so they see writes it has not passed on yet.
+	 * @param writer the writer, or null to only change the cache
+	 */
+	public void setWriter (CacheWriter<T, U> writer) {
+		this.writer = writer;
+		loader = writer == null ? provider : writer.readThrough(provider);
+	}
+	
+	/**
+	 * Returns the statistics recorded so far.
+	 * @return a snapshot of the counter, or empty statistics if there is none
+	 */
+	public CacheStats getStats () {
+		return stats == null ? new StatsCounter().snapshot() : stats.snapshot();
+	}
+	
+	/**
+	 * Makes entries expire as decided by the specified expiry, measuring time with
+	 * <tt>System.nanoTime</tt>. Entries already in the cache never expire.
+	 * @param expiry how long each entry may live
+	 */
+	public void setExpiry (Expiry<T, U> expiry) {
+		setExpiry(expiry, System::nanoTime);
+	}
+	
+	/**
+	 * Makes entries expire as decided by the specified expiry. Entries already in the cache
+	 * never expire, even if an earlier expiry had them scheduled.
+	 * @param expiry how long each entry may live
+	 * @param ticker the source of the current time, in nanoseconds
+	 */
+	public void setExpiry (Expiry<T, U> expiry, LongSupplier ticker) {
+		if(wheel != null) {
+			for(CachedObject x : cache.values()) {
+				if(x.timer != null) {
+					wheel.deschedule(x.timer); //off the old wheel, which nothing advances any more
+				}
+			}
+		}
+		this.expiry = expiry;
+		this.ticker = ticker;
+		wheel = new TimerWheel(ticker.getAsLong());
+	}
+	
+	/**
+	 * Reloads entries in the background once they are older than the specified age. The
+	 * first <tt>get</tt> after that returns the current value at once and starts one reload
+	 * on the executor; the value is swapped in by a <tt>get</tt> after the reload is done.
+	 * If the reload fails the current value stays and the failure is recorded. Entries
+	 * already in the cache count as written now. Time is measured with the ticker given to
+	 * <tt>setExpiry</tt>, or <tt>System.nanoTime</tt> if there is none, so set the expiry first.
+	 * The provider is called from the executor's threads, so it has to be thread-safe.
+	 * @param duration how old an entry gets before it is reloaded
+	 * @param unit the unit of the duration
+	 * @param executor runs the reloads
+	 */
+	public void setRefreshAfterWrite (long duration, TimeUnit unit, Executor executor) {
+		refreshNanos = unit.toNanos(duration);
+		refreshExecutor = executor;
+		if(ticker == null) {
+			ticker = System::nanoTime;
+		}
+		final long now = ticker.getAsLong();
+		for(CachedObject x : cache.values()) {
+			x.writeTime = now;
+		}
+	}
+	
+	/**
+	 * Returns the number of background reloads that failed.
+	 * @return the number of failed refreshes since the object's instantiation.
+	 */
+	public int getRefreshFailures () {
+		return refreshFailures;
+	}
+	
+	/**
+	 * Returns what made the most recent background reload fail.
+	 * @return the error, or null if no refresh has failed
+	 */
+	public Throwable getLastRefreshFailure () {
+		return lastRefreshFailure;
+	}
+	
+	/**
+	 * Returns the values associated with the specified keys. All of the misses go to the
+	 * provider in one <tt>getAll</tt> call, and the eviction policy is updated in a single pass
+	 * at the end: it is told about the hits first, then the loaded keys are added.
+	 * @param keys the keys
+	 * @return a map from each key to its associated value
+	 */
+	public Map<T, U> getAll (Collection<T> keys) {
+		final Map<T, U> result = new HashMap<T, U>(keys.size() * 2);
+		final List<CachedObject> hits = new ArrayList<CachedObject>();
+		final List<T> missing = new ArrayList<T>();
+		if(collected != null) drainCollected();
+		if(totalWeight > maxWeight) shrinkStep();
+		final long now = advance();
+		for(T key : keys) {
+			if(result.containsKey(key)) {
+				continue; //a key asked for twice is only looked up (and missed) once
+			}
+			if(sampler != null) sampler.record(key);
 			final CachedObject ret = cache.get(key);
-			addToFront(evict(ret));
-			return ret.obj;
-			//if cache already contains the key, evict the value and move it to the front and return
-		}
-		else if(throwAway()) {
-			final CachedObject bck = back;
-			cache.remove(bck.key);
-			evict(bck);
-			//if we need to throw away something, then remove the back entry from the cache
-			//and evict it from the LinkedList chain.
-		}
-		final CachedObject ret = new CachedObject(key, provider.get(key)); 
-		addToFront(ret); //create a new CachedObject with key and the provider's return
-		//then add it to the front of the LinkedList
-		cache.put(key, ret); //add this new entry to the cache
+			final U value = ret == null ? null : ret.value();
+			if(ret != null && (isExpired(ret, now) || isCollected(ret, value))) {
+				removeEntry(ret);
+				if(!isCollected(ret, value)) {
+					retainStale(ret);
+				}
+			}
+			else if(ret != null) {
+				hits.add(ret);
+				result.put(key, value); //which also keeps it from being collected
+				continue;
+			}
+			if(absent != null && isKnownAbsent(key, now)) {
+				if(stats != null) stats.recordHit();
+				result.put(key, null);
+			}
+			else {
+				missing.add(key);
+				result.put(key, null); //placeholder until the provider answers
+			}
+		}
+		Map<T, U> loaded = Collections.<T, U>emptyMap();
+		boolean rejected = false;
+		if(!missing.isEmpty()) {
+			try {
+				loaded = stats == null ? loader.getAll(missing) : stats.loadAll(loader, missing);
+			}
+			catch(LoadRejectedException e) {
+				loaded = new HashMap<T, U>(missing.size() * 2);
+				for(T key : missing) {
+					loaded.put(key, serveStale(key, e)); //all or nothing, like a load that fails
+				}
+				rejected = true;
+			}
+		}
+		for(CachedObject hit : hits) {
+			policy.recordHit(hit);
+			accessed(hit, result.get(hit.key), now);
+			if(stats != null) stats.recordHit();
+		}
+		for(CachedObject hit : hits) {
+			if(cache.get(hit.key) == hit) {
+				result.put(hit.key, refresh(hit, result.get(hit.key), now)); //unless swapping in another reload pushed it out
+			}
+		}
+		for(T key : missing) {
+			result.put(key, rejected ? loaded.get(key) : addLoaded(key, loaded.get(key)));
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks whether the specified key is cached, without telling the eviction policy.
+	 * @param key the key
+	 * @return true if the key is in the cache, false otherwise.
+	 */
+	boolean containsKey (T key) {
+		final long now = advance();
+		final CachedObject x = cache.get(key);
+		if(x == null) {
+			return absent != null && isKnownAbsent(key, now);
+		}
+		return !isExpired(x, now) && !isCollected(x, x.value());
+	}
+	
+	/**
+	 * Caches a value that was loaded for a missing key, evicting an entry if needed,
+	 * and counts the miss. Used by wrappers that call the provider outside of this cache.
+	 * @param key the key that missed
+	 * @param value the value the provider returned for the key
+	 * @return the value that was cached
+	 */
+	U addLoaded (T key, U value) {
 		timesMissed++; //increase timeMissed counter
-		return ret.obj; //return
+		if(stats != null) stats.recordMiss();
+		return insert(key, value);
 	}
 	
 	/**
-	 * Adds the specified object to the front of the LinkedList.
-	 * @param x The CachedObject to add to the front of the list
+	 * Returns the value of an expired entry in place of a load the provider turned down.
+	 * Nothing is cached and no miss is counted, so the next lookup tries to load again. Used
+	 * by wrappers that call the provider outside of this cache.
+	 * @param key the key whose load was rejected
+	 * @param rejection why the load was rejected
+	 * @return the expired value
+	 * @throws LoadRejectedException the rejection, if it does not allow stale values or no
+	 * expired value was kept for the key
 	 */
-	private void addToFront(CachedObject x) {
-		x.after = front; //set x's "after" pointer to the current front
-		x.before = null; //set x's "before" pointer to null, at it doesn't have anything before itself
-		if(front != null) front.before = x; //if front isn't null, set fronts before pointer to x
-		front = x; //set front to x
-		if(back == null) back = front; //if there was no back previously, then x is both front and back
+	U serveStale (T key, LoadRejectedException rejection) {
+		final CachedObject x = stale == null || !rejection.isStaleAllowed() ? null : stale.get(key);
+		final U value = x == null ? null : x.value();
+		if(x == null || isCollected(x, value)) {
+			throw rejection;
+		}
+		return value;
 	}
-
+	
+	/**
+	 * Keeps an expired entry that was just cleared out for serving stale, if stale values
+	 * are kept, dropping the oldest ones if there are too many.
+	 * @param x The expired entry
+	 */
+	private void retainStale(CachedObject x) {
+		if(stale == null) {
+			return;
+		}
+		stale.remove(x.key); //so it moves to the end
+		stale.put(x.key, x);
+		final Iterator<CachedObject> oldest = stale.values().iterator();
+		while(stale.size() > maxStale) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+	
 	/**
-	 * Removes the specified object from the LinkedList
-	 * @param x The object to remove from the list
-	 * @return The object that was removed
+	 * Caches a value, replacing any entry the key already has and evicting entries until it
+	 * fits.
+	 * @param key The key
+	 * @param value The value
+	 * @return the value that was cached
 	 */
-	private CachedObject evict(CachedObject x) {
-		final CachedObject newBefore = x.before; //the node before the one we're removing
-		final CachedObject newAfter = x.after; //the node after the one we're removing
-		if(newAfter != null) {
-			newAfter.before = newBefore;
-			//if newAfter isn't null, change its "behind" pointer to the CachedObject behind x
+	private U insert(T key, U value) {
+		final CachedObject old = cache.get(key);
+		if(old != null) {
+			removeEntry(old); //an expired entry that was never cleared out
 		}
-		if(newBefore != null) {
-			newBefore.after = newAfter;
-			//if newBefore isn't null, change its "after" pointer to the CachedObject after x
+		if(stale != null) {
+			stale.remove(key); //loaded or written again, so the expired value is no longer needed
 		}
-		if(newBefore == null) {
-			front = newAfter;
-			//if newBefore is null (we are evicting the first element) 
-			//then set the new front to the node after x
+		if(absent != null) {
+			if(value == null) {
+				addAbsent(key);
+				return null; //kept apart, so it cannot push real entries out
+			}
+			absent.remove(key);
 		}
-		if(newAfter == null) {
-			back = newBefore;
-			//if newAfter is null (we are evicting the last element)
-			//then set the new back to the node before x
+		final int weight = weigher.weigh(key, value);
+		if(weight < 0) {
+			throw new IllegalArgumentException("weight must not be negative");
+		}
+		if(weight > maxWeight) {
+			return value; //heavier than the whole cache, so hand it back without caching it
+		}
+		final long ceiling = Math.max(maxWeight, totalWeight); //while shrinking, don't grow past the current total
+		policy.prepareAdd(key);
+		while(throwAway(weight, ceiling)) {
+			evictBack();
+			//throw away the entries the policy chooses until the new one fits
+		}
+		final CachedObject ret = new CachedObject(key, value, weight); 
+		policy.add(ret); //create a new CachedObject with key and the provider's return
+		//then hand it to the eviction policy
+		cache.put(key, ret); //add this new entry to the cache
+		totalWeight += weight;
+		if(ticker != null) {
+			final long now = ticker.getAsLong();
+			ret.writeTime = now;
+			if(expiry != null) {
+				schedule(ret, now, expiry.expireAfterWrite(key, value));
+			}
 		}
-		return x; //return object we evicted
+		return value; //return
 	}
+	
+	/**
+	 * Associates a value with a key, writing it to the <tt>CacheWriter</tt> first if there is
+	 * one. Any cached value for the key is replaced and the new entry is added to the
+	 * eviction policy. Does not count as a miss.
+	 * @param key the key
+	 * @param value the new value
+	 */
+	public void put (T key, U value) {
+		if(writer != null) writer.write(key, value);
+		insert(key, value);
+	}
+	
+	/**
+	 * Drops the entry for a key, deleting the key through the <tt>CacheWriter</tt> first if
+	 * there is one. The next <tt>get</tt> for the key asks the provider again.
+	 * @param key the key
+	 */
+	public void invalidate (T key) {
+		if(writer != null) writer.delete(key);
+		final CachedObject x = cache.get(key);
+		if(x != null) {
+			removeEntry(x);
+		}
+		if(absent != null) {
+			absent.remove(key);
+		}
+		if(stale != null) {
+			stale.remove(key);
+		}
+	}
+	
+	/**
+	 * Removes the entry for the specified key, but only if it still holds the specified value.
+	 * Does not count as a miss.
+	 * @param key the key
+	 * @param value the value the entry is expected to hold, compared by identity
+	 * @return true if the entry was removed, false otherwise.
+	 */
+	boolean remove (T key, U value) {
+		final CachedObject x = cache.get(key);
+		if(x == null || x.value() != value) {
+			return false; //the entry is gone or was replaced in the meantime
+		}
+		removeEntry(x);
+		return true;
+	}
+	
+	/**
+	 * Removes the entry the eviction policy chooses from the cache.
+	 */
+	private void evictBack() {
+		final CachedObject x = entry(policy.evict());
+		if(stats != null) stats.recordEviction(x.key, false);
+		forget(x);
+	}
+	
+	/**
+	 * Calls the provider for a key, timing the call if statistics are being recorded.
+	 * @param key The key to load
+	 * @return the value the provider returned
+	 */
+	private U load(T key) {
+		return stats == null ? loader.get(key) : stats.load(loader, key);
+	}
+	
+	/**
+	 * Removes an entry from the cache, the eviction policy and the timer wheel.
+	 * @param x The entry to remove
+	 */
+	private void removeEntry(CachedObject x) {
+		policy.remove(x);
+		forget(x);
+	}
+	
+	/**
+	 * Removes an entry the eviction policy no longer holds from the cache and the timer wheel.
+	 * @param x The entry to remove
+	 */
+	private void forget(CachedObject x) {
+		cache.remove(x.key);
+		totalWeight -= x.weight;
+		if(x.timer != null) {
+			wheel.deschedule(x.timer);
+		}
+	}
+	
+	/**
+	 * Returns the cache's entry behind one of the eviction policy's nodes.
+	 * @param node The node, which is always one of this cache's entries
+	 * @return the entry
+	 */
+	@SuppressWarnings("unchecked")
+	private CachedObject entry(EvictionPolicy.Node<T> node) {
+		return (CachedObject) node;
+	}
+	
+	/**
+	 * Moves the timer wheel up to the current time, which clears out every entry that is due.
+	 * @return the current time, or 0 if entries neither expire nor refresh
+	 */
+	private long advance() {
+		if(ticker == null) {
+			return 0;
+		}
+		final long now = ticker.getAsLong();
+		if(wheel != null) {
+			wheel.advance(now);
+		}
+		return now;
+	}
+	
+	/**
+	 * Clears out the entries whose values the garbage collector took back, counting each
+	 * as an eviction.
+	 */
+	private void drainCollected() {
+		Reference<? extends U> ref;
+		while((ref = collected.poll()) != null) {
+			@SuppressWarnings("unchecked")
+			final CachedObject x = ((ValueReference<CachedObject>) ref).entry();
+			if(cache.get(x.key) == x) { //unless it was already cleared out or replaced
+				if(stats != null) stats.recordEviction(x.key, false);
+				removeEntry(x);
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether an entry's value was taken back by the garbage collector.
+	 * @param x The entry
+	 * @param value What the entry's value read as
+	 * @return true if the value was collected, false otherwise.
+	 */
+	private boolean isCollected(CachedObject x, U value) {
+		return value == null && x.ref != null; //null values are never held by reference
+	}
+	
+	/**
+	 * Checks whether the provider recently had no value for a key, forgetting it if that
+	 * was too long ago.
+	 * @param key The key
+	 * @param now The current time
+	 * @return true if the key is known to be absent, false otherwise.
+	 */
+	private boolean isKnownAbsent(T key, long now) {
+		final Long until = absent.get(key);
+		if(until == null) {
+			return false;
+		}
+		if(until - now > 0) {
+			return true;
+		}
+		absent.remove(key);
+		return false;
+	}
+	
+	/**
+	 * Remembers that a key is absent, dropping the keys that have expired and then the
+	 * oldest ones if there are too many. Every key lives equally long, so the oldest are
+	 * also the first to expire.
+	 * @param key The key
+	 */
+	private void addAbsent(T key) {
+		final long now = ticker.getAsLong();
+		absent.remove(key); //so it moves to the end
+		absent.put(key, now + absentNanos);
+		final Iterator<Long> oldest = absent.values().iterator();
+		while(oldest.hasNext()) {
+			final long until = oldest.next();
+			if(absent.size() <= maxAbsent && until - now > 0) {
+				break;
+			}
+			oldest.remove();
+		}
+	}
+	
+	/**
+	 * Checks whether an entry has expired but was not cleared out by the wheel yet.
+	 * @param x The entry
+	 * @param now The current time
+	 * @return true if the entry has expired, false otherwise.
+	 */
+	private boolean isExpired(CachedObject x, long now) {
+		return x.timer != null && x.timer.isScheduled() && x.timer.time - now <= 0;
+	}
+	
+	/**
+	 * Gives the expiry a chance to extend an entry's life after it was read.
+	 * @param x The entry that was read
+	 * @param value The entry's value
+	 * @param now The current time
+	 */
+	private void accessed(CachedObject x, U value, long now) {
+		if(expiry != null) {
+			final long remaining = x.timer != null && x.timer.isScheduled() ? x.timer.time - now : Long.MAX_VALUE;
+			schedule(x, now, expiry.expireAfterAccess(x.key, value, remaining));
+		}
+	}
+	
+	/**
+	 * Starts a background reload of an entry that has reached the refresh age, and swaps in
+	 * the reloaded value once it is ready. Only one reload per entry runs at a time.
+	 * @param x The entry that was read
+	 * @param value The entry's current value
+	 * @param now The current time
+	 * @return the value to hand back for the entry
+	 */
+	private U refresh(CachedObject x, U value, long now) {
+		if(refreshExecutor == null) {
+			return value;
+		}
+		if(x.reloading == null && now - x.writeTime >= refreshNanos) {
+			final T key = x.key;
+			try {
+				x.reloading = CompletableFuture.supplyAsync(() -> load(key), refreshExecutor);
+			}
+			catch(RuntimeException e) {
+				refreshFailed(x, now, e); //the executor turned the reload down
+				return value;
+			}
+		}
+		if(x.reloading == null || !x.reloading.isDone()) {
+			return value; //the old value is served while the reload runs
+		}
+		final U reloaded;
+		try {
+			reloaded = x.reloading.join();
+		}
+		catch(CompletionException e) {
+			refreshFailed(x, now, e.getCause());
+			return value;
+		}
+		catch(RuntimeException e) {
+			refreshFailed(x, now, e); //cancelled
+			return value;
+		}
+		return insert(x.key, reloaded); //not a miss, the caller never waited for it
+	}
+	
+	/**
+	 * Records a failed reload. The entry keeps its value and is tried again after another
+	 * refresh period.
+	 * @param x The entry whose reload failed
+	 * @param now The current time
+	 * @param error What went wrong
+	 */
+	private void refreshFailed(CachedObject x, long now, Throwable error) {
+		refreshFailures++;
+		lastRefreshFailure = error;
+		x.reloading = null;
+		x.writeTime = now;
+	}
+	
+	/**
+	 * Puts an entry on the timer wheel so it expires after the specified time to live. The
+	 * entry gets its timer the first time it is scheduled, and is left where it is if its
+	 * expiry time did not change, as on every read under expire-after-write.
+	 * @param x The entry
+	 * @param now The current time
+	 * @param ttl How long the entry may live, Long.MAX_VALUE for ever
+	 */
+	private void schedule(CachedObject x, long now, long ttl) {
+		if(ttl == Long.MAX_VALUE) {
+			if(x.timer != null) {
+				wheel.deschedule(x.timer);
+			}
+			return;
+		}
+		final long time = now + ttl;
+		if(x.timer == null) {
+			x.timer = new Expiration(x);
+		}
+		else if(x.timer.isScheduled() && x.timer.time == time) {
+			return;
+		}
+		x.timer.time = time;
+		wheel.schedule(x.timer);
+	}
+	
 	/**
 	 * Returns the number of cache misses since the object's instantiation.
 	 * @return the number of cache misses since the object's instantiation.
@@ -102,28 +868,236 @@ public class LRUCache<T, U> implements Cache<T, U> {
 		return timesMissed;
 	}
 	
+	/**
+	 * Writes every entry to a file, from the one the eviction policy would keep longest to
+	 * the next one it would evict, so that
+	 * <tt>restore</tt> can rebuild the cache after a restart. Entries are streamed one at a
+	 * time, and the file is written next to its final place and then moved there, so a
+	 * crash never leaves a half-written snapshot behind.
+	 * @param file where to write the snapshot
+	 * @param keySerializer turns keys into bytes
+	 * @param valueSerializer turns values into bytes
+	 * @throws IOException if the file cannot be written
+	 */
+	public void snapshot (Path file, Serializer<T> keySerializer, Serializer<U> valueSerializer) throws IOException {
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			final long now = advance();
+			for(EvictionPolicy.Node<T> node : policy) {
+				final CachedObject x = entry(node);
+				final U value = x.value();
+				if(!isExpired(x, now) && !isCollected(x, value)) {
+					writeBytes(out, x.key == null ? null : keySerializer.serialize(x.key));
+					writeBytes(out, value == null ? null : valueSerializer.serialize(value));
+				}
+			}
+			out.writeInt(END_OF_SNAPSHOT);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Replaces the contents of the cache with a snapshot written by <tt>snapshot</tt>,
+	 * keeping its order and without calling the provider or counting misses. Entries are
+	 * read one at a time, and reading stops once the cache is full, so only the entries the
+	 * policy valued most are kept if the snapshot came from a bigger cache. Restored
+	 * entries count as freshly written for expiry and refresh.
+	 * @param file the snapshot to read
+	 * @param keySerializer turns bytes back into keys
+	 * @param valueSerializer turns bytes back into values
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public void restore (Path file, Serializer<T> keySerializer, Serializer<U> valueSerializer) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new IOException(file + " is not a cache snapshot");
+			}
+			clear();
+			final long now = ticker == null ? 0 : ticker.getAsLong();
+			final List<CachedObject> restored = new ArrayList<CachedObject>();
+			try {
+				int keyLength;
+				while((keyLength = in.readInt()) != END_OF_SNAPSHOT) {
+					final T key = keyLength == NULL_LENGTH ? null : keySerializer.deserialize(readBytes(in, keyLength));
+					final int valueLength = in.readInt();
+					final U value = valueLength == NULL_LENGTH ? null : valueSerializer.deserialize(readBytes(in, valueLength));
+					final int weight = weigher.weigh(key, value);
+					if(weight < 0) {
+						throw new IllegalArgumentException("weight must not be negative");
+					}
+					if(totalWeight + weight > maxWeight) {
+						break; //full, and the policy would evict the rest of the snapshot first
+					}
+					final CachedObject x = new CachedObject(key, value, weight);
+					restored.add(x);
+					cache.put(key, x);
+					totalWeight += weight;
+					x.writeTime = now;
+					if(expiry != null) {
+						schedule(x, now, expiry.expireAfterWrite(key, value));
+					}
+				}
+			}
+			finally {
+				for(int i = restored.size() - 1; i >= 0; i--) {
+					policy.add(restored.get(i)); //the snapshot starts with the entry to keep longest, so it goes in last
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes a length-prefixed byte array, or just <tt>NULL_LENGTH</tt> for null.
+	 * @param out The stream
+	 * @param bytes The bytes, or null
+	 * @throws IOException if the stream cannot be written
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		if(bytes == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a byte array whose length was already read.
+	 * @param in The stream
+	 * @param length The number of bytes
+	 * @return the bytes, wrapped for a <tt>Serializer</tt>
+	 * @throws IOException if the stream ends early or the length is corrupt
+	 */
+	private static ByteBuffer readBytes(DataInputStream in, int length) throws IOException {
+		if(length < 0) {
+			throw new IOException("corrupt snapshot, bad length " + length);
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+	
+	/**
+	 * Throws away every entry, without counting evictions.
+	 */
+	private void clear() {
+		for(CachedObject x : cache.values()) {
+			policy.remove(x);
+		}
+		cache.clear();
+		if(absent != null) {
+			absent.clear();
+		}
+		if(stale != null) {
+			stale.clear();
+		}
+		totalWeight = 0;
+		if(wheel != null) {
+			wheel = new TimerWheel(ticker.getAsLong()); //drops every timer at once
+		}
+	}
+	
+	/**
+	 * Returns the total weight of the entries in the cache. Without a <tt>Weigher</tt> this is
+	 * the number of entries.
+	 * @return the total weight of the entries in the cache
+	 */
+	public long getTotalWeight () {
+		return totalWeight;
+	}
+	
 	/**
 	 * Inner class to hold the CachedObject.
 	 * It is comparable to the Node class from class on 11/2/18
 	 */
-	private class CachedObject {
-		final public U obj;
-		final public T key;
-		public CachedObject before;
-		public CachedObject after;
-		public CachedObject(T key, U object) {
-			obj = object;
-			before = null;
-			after = null;
-			this.key = key;
+	private class CachedObject extends EvictionPolicy.Node<T> {
+		final private U obj; //null if the value is held by reference
+		final public Reference<U> ref;
+		final public int weight;
+		public Expiration timer; //null until the entry is first scheduled to expire
+		public long writeTime;
+		public CompletableFuture<U> reloading;
+		public CachedObject(T key, U object, int weight) {
+			super(key);
+			if(object == null || valueStrength == ValueStrength.STRONG) {
+				obj = object;
+				ref = null;
+			}
+			else {
+				obj = null;
+				ref = valueStrength == ValueStrength.SOFT ? new SoftValue(object, this) : new WeakValue(object, this);
+			}
+			this.weight = weight;
+			timer = null;
+		}
+		public U value() {
+			return ref == null ? obj : ref.get();
+		}
+	}
+	
+	/**
+	 * An entry's place on the timer wheel.
+	 */
+	private class Expiration extends TimerWheel.Timer {
+		final private CachedObject entry;
+		public Expiration(CachedObject entry) {
+			this.entry = entry;
+		}
+		protected void expire() {
+			if(stats != null) stats.recordEviction(entry.key, true);
+			removeEntry(entry); //the wheel says this entry's time is up
+			retainStale(entry);
+		}
+	}
+	
+	/**
+	 * A reference to a value that knows which entry to clear out once it is collected.
+	 */
+	private interface ValueReference<E> {
+		E entry();
+	}
+	
+	private class SoftValue extends SoftReference<U> implements ValueReference<CachedObject> {
+		final private CachedObject entry;
+		public SoftValue(U value, CachedObject entry) {
+			super(value, collected);
+			this.entry = entry;
+		}
+		public CachedObject entry() {
+			return entry;
+		}
+	}
+	
+	private class WeakValue extends WeakReference<U> implements ValueReference<CachedObject> {
+		final private CachedObject entry;
+		public WeakValue(U value, CachedObject entry) {
+			super(value, collected);
+			this.entry = entry;
+		}
+		public CachedObject entry() {
+			return entry;
 		}
 	}
 	
 	/**
 	 * Checks to see if the cache is going to overflow and if it will need to evict an element.
+	 * @param weight the weight of the entry about to be added
+	 * @param ceiling the most total weight allowed right now
 	 * @return true if the cache will overflow, false otherwise.
 	 */
-	private boolean throwAway() {
-		return cache.size() >= capacity;
+	private boolean throwAway(int weight, long ceiling) {
+		return totalWeight + weight > ceiling;
+	}
+	
+	/**
+	 * Evicts a bounded number of entries while the cache is over a capacity
+	 * that was shrunk.
+	 */
+	private void shrinkStep() {
+		for(int i = 0; i < RESIZE_STEP && totalWeight > maxWeight; i++) {
+			evictBack();
+		}
 	}
 }
@@ -0,0 +1,59 @@
+import java.util.Iterator;
+
+/**
+ * Least-recently-used eviction, the default for <tt>LRUCache</tt>: every hit moves the entry
+ * to the front, and the entry at the back is evicted.
+ */
+public class LRUPolicy<T> implements EvictionPolicy<T> {
+	final private NodeList<T> entries; //from most to least recently used
+
+	public LRUPolicy () {
+		entries = new NodeList<T>();
+	}
+
+	/**
+	 * Does nothing, every entry is in one list.
+	 * @param capacity the capacity of the cache
+	 */
+	public void setCapacity (long capacity) {
+	}
+
+	/**
+	 * Moves the entry to the front.
+	 * @param node the entry that was hit
+	 */
+	public void recordHit (Node<T> node) {
+		entries.moveToFront(node);
+	}
+
+	/**
+	 * Adds the entry at the front.
+	 * @param node the new entry
+	 */
+	public void add (Node<T> node) {
+		entries.addFirst(node);
+	}
+
+	/**
+	 * Takes the least recently used entry.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	public Node<T> evict () {
+		return entries.pollLast();
+	}
+
+	/**
+	 * Takes the entry out of the list.
+	 * @param node the entry that left
+	 */
+	public void remove (Node<T> node) {
+		entries.remove(node);
+	}
+
+	/**
+	 * Iterates from the most to the least recently used entry.
+	 */
+	public Iterator<Node<T>> iterator () {
+		return entries.iterator();
+	}
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in the style of HdrHistogram. Every power of two is split into
+ * 16 equal buckets, so a recorded value is reported within a sixteenth of itself anywhere
+ * in the range of <tt>long</tt>, using a fixed 960 counters. Threads can record at the same
+ * time without locking.
+ */
+public class LatencyHistogram {
+	final private static int SUB_BITS = 4;
+	final private static int SUB_BUCKETS = 1 << SUB_BITS;
+	final private static int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+	final private AtomicLongArray counts;
+
+	public LatencyHistogram () {
+		counts = new AtomicLongArray(NUM_BUCKETS);
+	}
+
+	/**
+	 * Records one value. Negative values count as 0.
+	 * @param value the value, usually a duration in nanoseconds
+	 */
+	public void record (long value) {
+		counts.incrementAndGet(indexOf(Math.max(0, value)));
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 * @return the number of values recorded
+	 */
+	public long getCount () {
+		long total = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the value that the specified percentage of recorded values are at or below,
+	 * rounded up to the top of its bucket.
+	 * @param percentile the percentage, from 0 to 100
+	 * @return the value at the percentile, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile (double percentile) {
+		final long total = getCount();
+		if(total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank) {
+				return highestValueIn(i);
+			}
+		}
+		return highestValueIn(NUM_BUCKETS - 1); //values were recorded while we counted
+	}
+
+	/**
+	 * Returns a copy of the histogram as it is now.
+	 * @return the copy
+	 */
+	public LatencyHistogram snapshot () {
+		final LatencyHistogram copy = new LatencyHistogram();
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			copy.counts.set(i, counts.get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * Finds the bucket for a value: values below 16 get a bucket each, and every power of
+	 * two above that is split by the four bits below its highest one.
+	 * @param value The value, not negative
+	 * @return the bucket index
+	 */
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value that falls into the specified bucket.
+	 * @param index The bucket index
+	 * @return the top of the bucket
+	 */
+	private static long highestValueIn(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+		final long width = 1L << (exponent - SUB_BITS);
+		return (1L << exponent) + (index % SUB_BUCKETS) * width + width - 1;
+	}
+}
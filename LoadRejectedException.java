@@ -0,0 +1,26 @@
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by a <tt>BoundedLoader</tt> when a load cannot be done in time: the wait queue is
+ * full, or the deadline passed while waiting for a turn or for the provider.
+ */
+public class LoadRejectedException extends RejectedExecutionException {
+	final private static long serialVersionUID = 1L;
+	final private boolean staleAllowed;
+
+	/**
+	 * @param message what went wrong
+	 * @param staleAllowed whether a cache may hand back a value it knows is stale instead
+	 */
+	public LoadRejectedException (String message, boolean staleAllowed) {
+		super(message);
+		this.staleAllowed = staleAllowed;
+	}
+
+	/**
+	 * @return true if a cache may hand back a stale value instead of throwing
+	 */
+	public boolean isStaleAllowed () {
+		return staleAllowed;
+	}
+}
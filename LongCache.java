@@ -0,0 +1,10 @@
+/**
+ * A cache that associates <tt>long</tt> keys with values, without boxing the keys.
+ */
+interface LongCache<U> extends LongDataProvider<U> {
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	int getNumMisses ();
+}
@@ -0,0 +1,11 @@
+/**
+ * A data provider that associates <tt>long</tt> keys with values, without boxing the keys.
+ */
+interface LongDataProvider<U> {
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	U get (long key);
+}
@@ -0,0 +1,158 @@
+/**
+ * An implementation of <tt>IntCache</tt> that uses a least-recently-used (LRU)
+ * eviction policy, specialized for <tt>long</tt> keys. Entries live in slots of parallel
+ * arrays sized to the capacity, the LRU list is a chain of slot indices, and the index
+ * is an open-addressing table of slot numbers, so lookups and hits never box a key or
+ * allocate, and evicted slots are reused for the entries that replace them.
+ */
+public class LongLRUCache<U> implements LongCache<U> {
+	final private static int NIL = -1;
+	final private LongDataProvider<U> provider;
+	final private int capacity;
+	final private long[] keys;
+	final private Object[] values;
+	final private int[] before;
+	final private int[] after;
+	final private int[] table; //slot + 1 for each occupied bucket, 0 for an empty one
+	final private int mask;
+	private int size;
+	private int timesMissed;
+	private int front;
+	private int back;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public LongLRUCache (LongDataProvider<U> provider, int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.provider = provider;
+		this.capacity = capacity;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		before = new int[capacity];
+		after = new int[capacity];
+		table = new int[Integer.highestOneBit(capacity) << 2]; //at most half full, keeps probe chains short
+		mask = table.length - 1;
+		size = 0;
+		timesMissed = 0;
+		front = NIL;
+		back = NIL;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	@SuppressWarnings("unchecked")
+	public U get (long key) {
+		final int bucket = find(key);
+		if(table[bucket] != 0) {
+			final int slot = table[bucket] - 1;
+			if(slot != front) {
+				unlink(slot);
+				linkFront(slot);
+			}
+			return (U) values[slot]; //hit, moved to the front
+		}
+		final U value = provider.get(key);
+		final int slot;
+		if(size == capacity) {
+			slot = back; //reuse the least recently used slot
+			unlink(slot);
+			removeFromTable(keys[slot]);
+		}
+		else {
+			slot = size++;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		table[find(key)] = slot + 1; //find again, removing the victim may have shifted buckets
+		linkFront(slot);
+		timesMissed++;
+		return value;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return timesMissed;
+	}
+
+	/**
+	 * Finds the bucket holding the specified key, or the empty bucket where it would go.
+	 * @param key The key to look up
+	 * @return the bucket index
+	 */
+	private int find(long key) {
+		int bucket = hash(key);
+		while(table[bucket] != 0 && keys[table[bucket] - 1] != key) {
+			bucket = (bucket + 1) & mask; //linear probing
+		}
+		return bucket;
+	}
+
+	/**
+	 * Removes the specified key from the index, shifting later entries of its probe chain
+	 * back so that no tombstones are needed.
+	 * @param key The key to remove
+	 */
+	private void removeFromTable(long key) {
+		int hole = find(key);
+		int next = hole;
+		while(true) {
+			next = (next + 1) & mask;
+			if(table[next] == 0) {
+				break;
+			}
+			final int home = hash(keys[table[next] - 1]);
+			//move the entry into the hole unless its home bucket lies cyclically in (hole, next]
+			final boolean staysPut = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+			if(!staysPut) {
+				table[hole] = table[next];
+				hole = next;
+			}
+		}
+		table[hole] = 0;
+	}
+
+	/**
+	 * Spreads the bits of a key over the table.
+	 * @param key The key
+	 * @return the home bucket of the key
+	 */
+	private int hash(long key) {
+		final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9; //fold the high half in, then golden-ratio multiply
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Adds the specified slot to the front of the LRU list.
+	 * @param slot The slot to add
+	 */
+	private void linkFront(int slot) {
+		after[slot] = front;
+		before[slot] = NIL;
+		if(front != NIL) before[front] = slot;
+		front = slot;
+		if(back == NIL) back = slot;
+	}
+
+	/**
+	 * Removes the specified slot from the LRU list.
+	 * @param slot The slot to remove
+	 */
+	private void unlink(int slot) {
+		final int newBefore = before[slot];
+		final int newAfter = after[slot];
+		if(newAfter != NIL) before[newAfter] = newBefore;
+		else back = newBefore;
+		if(newBefore != NIL) after[newBefore] = newAfter;
+		else front = newAfter;
+	}
+}
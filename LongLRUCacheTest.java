@@ -0,0 +1,91 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Code to test the primitive-keyed <tt>LongLRUCache</tt> implementation, with the same walks
+ * as <tt>IntLRUCacheTest</tt> so the two copies cannot drift apart.
+ */
+public class LongLRUCacheTest {
+	private Provider provider;
+	private static class Provider implements LongDataProvider<String> {
+		public int fetches = 0;
+		public String get(long key) {
+			fetches++;
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Same walk as <tt>CacheTest.cacheProvidingIsCorrect</tt>.
+	 */
+	@Test
+	public void cacheProvidingIsCorrect() {
+		final LongLRUCache<String> cache = new LongLRUCache<String>(provider, 3);
+		assertEquals("1", cache.get(1L));
+		assertEquals("2", cache.get(2L));
+		assertEquals("3", cache.get(3L));
+		assertEquals(3, cache.getNumMisses());
+		assertEquals("4", cache.get(4L)); //get rid of 1 for 4
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("2", cache.get(2L)); //get 2, doesn't need to provide
+		assertEquals(4, cache.getNumMisses());
+		assertEquals("5", cache.get(5L)); //get rid of 3 for 5
+		assertEquals(5, cache.getNumMisses());
+		assertEquals("2", cache.get(2L));
+		assertEquals("5", cache.get(5L));
+		assertEquals("4", cache.get(4L));
+		assertEquals(5, cache.getNumMisses());
+		assertEquals("1", cache.get(1L)); //1 was evicted
+		assertEquals(6, provider.fetches);
+	}
+
+	/**
+	 * Pushes many colliding and evicted keys through a small index to exercise probing and
+	 * deletion, including keys that differ only above the low 32 bits.
+	 */
+	@Test
+	public void evictionKeepsIndexConsistent() {
+		final LongLRUCache<String> cache = new LongLRUCache<String>(provider, 7);
+		for(int i = 0; i < 10000; i++) {
+			final long key = ((i * 37) % 50 - 25) + ((long) (i % 3) << 32); //negative and wide keys too
+			assertEquals("" + key, cache.get(key));
+		}
+		final int misses = cache.getNumMisses();
+		for(int i = 0; i < 7; i++) {
+			cache.get(9999L + i); //fill with fresh keys
+		}
+		for(int i = 0; i < 7; i++) {
+			cache.get(9999L + i); //all hits now
+		}
+		assertEquals(misses + 7, cache.getNumMisses());
+		assertEquals(provider.fetches, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that keys that only differ in the high bits are kept apart.
+	 */
+	@Test
+	public void longKeysUseAllBits() {
+		final LongLRUCache<String> cache = new LongLRUCache<String>(provider, 3);
+		final long high = 1L << 40;
+		assertEquals("1", cache.get(1L));
+		assertEquals("" + (high + 1), cache.get(high + 1));
+		assertEquals("1", cache.get(1L));
+		assertEquals(2, cache.getNumMisses());
+		cache.get(2L);
+		cache.get(3L); //get rid of high + 1 for 3
+		cache.get(high + 1);
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroCapacity() {
+		new LongLRUCache<String>(provider, 0);
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
@@ -0,0 +1,338 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An implementation of <tt>Cache</tt> that uses a least-recently-used (LRU) eviction
+ * policy and keeps its values outside of the Java heap. Values are serialized into
+ * direct <tt>ByteBuffer</tt> pages; only the key index and the LRU list stay on the heap,
+ * so the garbage collector never has to trace the value bytes.
+ * <p>
+ * Each page is cut into equal chunks of one power-of-two size class, and a value goes
+ * into the smallest chunk that fits it. Evicting an entry from the back of the list gives
+ * its chunk back, and a page whose chunks are all free goes back to the shared pool so
+ * another size class can use it. Pages are 1 MB, or a sixteenth of the budget for small
+ * budgets; a value bigger than a whole page is returned without being cached. If the budget
+ * is used up and a few evictions do not free a chunk of the right size, because the freed
+ * chunks are spread over pages of other size classes, the value is also returned without
+ * being cached rather than emptying the cache for it.
+ */
+public class OffHeapCache<T, U> implements Cache<T, U> {
+	final private static int MIN_CHUNK = 64;
+	final private static int MAX_PAGE = 1 << 20;
+	final private static int MAX_EVICTIONS = 16; //most evictions one load may cause to find a chunk
+	final private Map<T, CachedObject> cache;
+	final private DataProvider<T, U> provider;
+	final private Serializer<U> serializer;
+	final private int capacity;
+	final private int pageSize;
+	final private int maxPages;
+	final private Page[] partialPages; //per size class, the head of a list of pages with at least one free chunk
+	final private ArrayDeque<Page> freePages;
+	private int numPages;
+	private int timesMissed;
+	private CachedObject front;
+	private CachedObject back;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param serializer turns values into the bytes that are stored off the heap
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @param maxBytes the most off-heap memory to use for values
+	 */
+	public OffHeapCache (DataProvider<T, U> provider, Serializer<U> serializer, int capacity, long maxBytes) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		if(maxBytes < MIN_CHUNK) {
+			throw new IllegalArgumentException("maxBytes must be at least " + MIN_CHUNK);
+		}
+		cache = new HashMap<T, CachedObject>(capacity);
+		this.provider = provider;
+		this.serializer = serializer;
+		this.capacity = capacity;
+		//at least 16 pages, so that a few size classes can share a small budget
+		pageSize = (int) Math.max(MIN_CHUNK, Math.min(MAX_PAGE, Long.highestOneBit(maxBytes / 16)));
+		maxPages = (int) Math.min(Integer.MAX_VALUE, maxBytes / pageSize);
+		partialPages = new Page[Integer.numberOfTrailingZeros(pageSize / MIN_CHUNK) + 1];
+		freePages = new ArrayDeque<Page>();
+		numPages = 0;
+		timesMissed = 0;
+		front = null;
+		back = null;
+	}
+
+	/**
+	 * Returns the value associated with the specified key. A hit deserializes the value
+	 * from its off-heap copy.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		final CachedObject ret = cache.get(key);
+		if(ret != null) {
+			addToFront(evict(ret));
+			return ret.page == null ? null : serializer.deserialize(ret.view());
+		}
+		final U value = provider.get(key);
+		load(key, value == null ? null : serializer.serialize(value));
+		return value;
+	}
+
+	/**
+	 * Returns the serialized bytes of the value associated with the specified key without
+	 * copying them. The buffer is a read-only view of the off-heap page and is only valid
+	 * until the entry is evicted, after which its space may hold another value.
+	 * @param key the key
+	 * @return a read-only view of the value's bytes, or null if the value is null
+	 */
+	public ByteBuffer getBytes (T key) {
+		CachedObject ret = cache.get(key);
+		if(ret != null) {
+			addToFront(evict(ret));
+		}
+		else {
+			final U value = provider.get(key);
+			final byte[] bytes = value == null ? null : serializer.serialize(value);
+			ret = load(key, bytes);
+			if(ret == null) {
+				return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer(); //too big to cache
+			}
+		}
+		return ret.page == null ? null : ret.view();
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return timesMissed;
+	}
+
+	/**
+	 * Returns the number of bytes of off-heap memory the cache has taken so far.
+	 * @return the number of bytes in all allocated pages
+	 */
+	public long getOffHeapBytes () {
+		return (long) numPages * pageSize;
+	}
+
+	/**
+	 * Caches a value that was loaded for a missing key and counts the miss.
+	 * @param key The key that missed
+	 * @param bytes The serialized value, or null if the value is null
+	 * @return the new entry, or null if the value is too big to cache
+	 */
+	private CachedObject load(T key, byte[] bytes) {
+		timesMissed++;
+		if(bytes != null && bytes.length > pageSize) {
+			return null; //would not fit in any chunk
+		}
+		if(cache.size() >= capacity) {
+			evictBack();
+		}
+		final CachedObject ret = new CachedObject(key);
+		if(bytes != null) {
+			final int sizeClass = sizeClassFor(bytes.length);
+			Page page = pageWithFreeChunk(sizeClass);
+			for(int i = 0; page == null && back != null && i < MAX_EVICTIONS; i++) {
+				evictBack(); //make room until a chunk of the right size frees up
+				page = pageWithFreeChunk(sizeClass);
+			}
+			if(page == null) {
+				return null; //too fragmented, so hand the value back without caching it
+			}
+			ret.page = page;
+			ret.offset = page.take();
+			ret.length = bytes.length;
+			if(page.numFree == 0) {
+				unlink(page, sizeClass); //full pages are not handed out
+			}
+			final ByteBuffer out = page.memory.duplicate();
+			out.position(ret.offset);
+			out.put(bytes);
+		}
+		addToFront(ret);
+		cache.put(key, ret);
+		return ret;
+	}
+
+	/**
+	 * Finds a page of the specified size class with a free chunk, carving a new page out of
+	 * the pool or the budget if there is none.
+	 * @param sizeClass The size class needed
+	 * @return a page with a free chunk, or null if there is no memory left
+	 */
+	private Page pageWithFreeChunk(int sizeClass) {
+		Page page = partialPages[sizeClass];
+		if(page != null) {
+			return page;
+		}
+		if(!freePages.isEmpty()) {
+			page = freePages.pop();
+		}
+		else if(numPages < maxPages) {
+			page = new Page(ByteBuffer.allocateDirect(pageSize));
+			numPages++;
+		}
+		else {
+			return null;
+		}
+		page.carve(MIN_CHUNK << sizeClass);
+		link(page, sizeClass);
+		return page;
+	}
+
+	/**
+	 * Puts a page at the head of its size class's list of pages with a free chunk.
+	 * @param page The page
+	 * @param sizeClass The page's size class
+	 */
+	private void link(Page page, int sizeClass) {
+		page.prev = null;
+		page.next = partialPages[sizeClass];
+		if(page.next != null) page.next.prev = page;
+		partialPages[sizeClass] = page;
+	}
+
+	/**
+	 * Takes a page off its size class's list of pages with a free chunk.
+	 * @param page The page
+	 * @param sizeClass The page's size class
+	 */
+	private void unlink(Page page, int sizeClass) {
+		if(page.prev != null) page.prev.next = page.next;
+		else partialPages[sizeClass] = page.next;
+		if(page.next != null) page.next.prev = page.prev;
+		page.prev = null;
+		page.next = null;
+	}
+
+	/**
+	 * Removes the least recently used entry and gives its chunk back.
+	 */
+	private void evictBack() {
+		final CachedObject bck = back;
+		cache.remove(bck.key);
+		evict(bck);
+		final Page page = bck.page;
+		if(page == null) {
+			return;
+		}
+		final int sizeClass = sizeClassFor(page.chunkSize);
+		if(page.numFree == 0) {
+			link(page, sizeClass); //it has a free chunk again
+		}
+		page.release(bck.offset);
+		if(page.numFree == page.freeChunks.length) {
+			unlink(page, sizeClass);
+			freePages.push(page); //every chunk is free, so any size class may reuse the page
+		}
+	}
+
+	/**
+	 * Returns the smallest size class whose chunks fit the specified number of bytes.
+	 * @param length The number of bytes
+	 * @return the size class
+	 */
+	private static int sizeClassFor(int length) {
+		if(length <= MIN_CHUNK) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK);
+	}
+
+	/**
+	 * Adds the specified object to the front of the LinkedList.
+	 * @param x The CachedObject to add to the front of the list
+	 */
+	private void addToFront(CachedObject x) {
+		x.after = front;
+		x.before = null;
+		if(front != null) front.before = x;
+		front = x;
+		if(back == null) back = front;
+	}
+
+	/**
+	 * Removes the specified object from the LinkedList
+	 * @param x The object to remove from the list
+	 * @return The object that was removed
+	 */
+	private CachedObject evict(CachedObject x) {
+		final CachedObject newBefore = x.before;
+		final CachedObject newAfter = x.after;
+		if(newAfter != null) newAfter.before = newBefore;
+		else back = newBefore;
+		if(newBefore != null) newBefore.after = newAfter;
+		else front = newAfter;
+		return x;
+	}
+
+	/**
+	 * The on-heap part of an entry: its key, its place in the LRU list, and where its
+	 * value's bytes are. A null value has no page.
+	 */
+	private class CachedObject {
+		final public T key;
+		public Page page;
+		public int offset;
+		public int length;
+		public CachedObject before;
+		public CachedObject after;
+		public CachedObject(T key) {
+			this.key = key;
+		}
+		/**
+		 * @return a read-only view of the value's bytes
+		 */
+		public ByteBuffer view() {
+			final ByteBuffer bytes = page.memory.asReadOnlyBuffer();
+			bytes.limit(offset + length);
+			bytes.position(offset);
+			return bytes.slice();
+		}
+	}
+
+	/**
+	 * One direct buffer cut into equal chunks, with a stack of the offsets of its free chunks,
+	 * and its links in its size class's list of pages with a free chunk.
+	 */
+	private static class Page {
+		final public ByteBuffer memory;
+		public Page prev;
+		public Page next;
+		public int chunkSize;
+		public int[] freeChunks;
+		public int numFree;
+		public Page(ByteBuffer memory) {
+			this.memory = memory;
+		}
+		/**
+		 * Cuts the whole page into free chunks of the specified size.
+		 * @param chunkSize The chunk size
+		 */
+		public void carve(int chunkSize) {
+			this.chunkSize = chunkSize;
+			freeChunks = new int[memory.capacity() / chunkSize];
+			numFree = freeChunks.length;
+			for(int i = 0; i < numFree; i++) {
+				freeChunks[i] = (numFree - 1 - i) * chunkSize; //lowest offsets are handed out first
+			}
+		}
+		/**
+		 * @return the offset of a chunk that is now in use
+		 */
+		public int take() {
+			return freeChunks[--numFree];
+		}
+		/**
+		 * @param offset The offset of a chunk that is free again
+		 */
+		public void release(int offset) {
+			freeChunks[numFree++] = offset;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.nio.ByteBuffer;
+
+/**
+ * Code to test an <tt>OffHeapCache</tt> implementation.
+ */
+public class OffHeapCacheTest {
+	private Provider provider;
+	/**
+	 * Returns the key repeated <tt>key</tt> times, so the key picks the value's size.
+	 */
+	private static class Provider implements DataProvider<Integer,String> {
+		public int fetches = 0;
+		public String get(Integer key) {
+			fetches++;
+			final StringBuilder value = new StringBuilder();
+			for(int i = 0; i < key; i++) {
+				value.append((char) ('a' + key % 26));
+			}
+			return value.toString();
+		}
+	}
+
+	/**
+	 * Tests that values come back intact and that eviction is least-recently-used.
+	 */
+	@Test
+	public void cacheProvidingIsCorrect() {
+		final Cache<Integer,String> cache = new OffHeapCache<Integer,String>(provider, new StringSerializer(), 3, 1 << 16);
+		assertEquals(provider.get(10), cache.get(10));
+		assertEquals(provider.get(200), cache.get(200));
+		assertEquals(provider.get(3000), cache.get(3000));
+		assertEquals(provider.get(10), cache.get(10));
+		assertEquals(3, cache.getNumMisses());
+		cache.get(4); //get rid of 200 for 4
+		assertEquals(4, cache.getNumMisses());
+		assertEquals(provider.get(3000), cache.get(3000));
+		assertEquals(provider.get(200), cache.get(200));
+		assertEquals(5, cache.getNumMisses());
+	}
+
+	/**
+	 * With room for only a few values the cache has to evict by memory, not by count,
+	 * and the freed chunks must be reused.
+	 */
+	@Test
+	public void evictsWhenOffHeapMemoryRunsOut() {
+		final OffHeapCache<Integer,String> cache = new OffHeapCache<Integer,String>(provider, new StringSerializer(), 100, 16384);
+		for(int pass = 0; pass < 3; pass++) {
+			for(int key = 1000; key < 1020; key++) {
+				assertEquals(provider.get(key), cache.get(key)); //each value takes a whole 1024 byte page
+			}
+		}
+		assertEquals(60, cache.getNumMisses()); //only 16 fit, so a loop over 20 always misses
+		assertEquals(16384, cache.getOffHeapBytes());
+		for(int key = 1; key <= 60; key++) {
+			assertEquals(provider.get(key), cache.get(key)); //small values reuse the freed pages
+		}
+		assertEquals(16384, cache.getOffHeapBytes());
+	}
+
+	/**
+	 * When the freed chunks are spread over many pages, a value that needs a whole page is
+	 * returned without being cached, instead of the cache being emptied to free a page.
+	 */
+	@Test
+	public void fragmentedPagesDoNotEmptyTheCache() {
+		final OffHeapCache<Integer,String> cache = new OffHeapCache<Integer,String>(provider, new StringSerializer(), 100, 4096);
+		for(int key = 1; key <= 64; key++) {
+			cache.get(key); //16 pages of four 64 byte chunks, keys 4p+1 to 4p+4 on page p
+		}
+		for(int chunk = 0; chunk < 4; chunk++) {
+			for(int page = 0; page < 16; page++) {
+				cache.get(4 * page + chunk + 1); //so the LRU order takes one chunk from each page in turn
+			}
+		}
+		assertEquals(64, cache.getNumMisses());
+		assertEquals(provider.get(200), cache.get(200)); //needs a whole 256 byte page
+		assertEquals(65, cache.getNumMisses());
+		for(int key = 2; key <= 64; key += 4) {
+			assertEquals(provider.get(key), cache.get(key)); //the second chunk of every page is still cached
+		}
+		assertEquals(65, cache.getNumMisses());
+		cache.get(200);
+		assertEquals(66, cache.getNumMisses()); //it was never cached
+	}
+
+	/**
+	 * A value bigger than the whole budget is returned but not cached.
+	 */
+	@Test
+	public void oversizedValueIsNotCached() {
+		final Cache<Integer,String> cache = new OffHeapCache<Integer,String>(provider, new StringSerializer(), 10, 1024);
+		assertEquals(provider.get(2000), cache.get(2000));
+		assertEquals(provider.get(2000), cache.get(2000));
+		assertEquals(2, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that getBytes hands out a read-only view of the stored bytes.
+	 */
+	@Test
+	public void getBytesIsReadOnlyView() {
+		final OffHeapCache<Integer,String> cache = new OffHeapCache<Integer,String>(provider, new StringSerializer(), 3, 1 << 16);
+		final ByteBuffer bytes = cache.getBytes(5);
+		assertTrue(bytes.isReadOnly());
+		assertTrue(bytes.isDirect());
+		assertEquals(5, bytes.remaining());
+		assertEquals(provider.get(5), new StringSerializer().deserialize(bytes));
+		assertEquals(bytes, cache.getBytes(5));
+		assertEquals(1, cache.getNumMisses());
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
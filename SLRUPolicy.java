@@ -0,0 +1,84 @@
+import java.util.Iterator;
+
+/**
+ * Segmented LRU eviction. New entries go into a probationary segment; an entry that is hit
+ * while on probation is promoted to the protected segment, which takes 80% of the
+ * capacity. When the protected segment overflows its least recently used entry is demoted
+ * back to probation, and victims are always taken from probation first, so entries that
+ * were only ever used once are the first to go.
+ */
+public class SLRUPolicy<T> implements EvictionPolicy<T> {
+	final private static int PROBATION = 0;
+	final private static int PROTECTED = 1;
+	final private NodeList<T> probation; //from most to least recently used
+	final private NodeList<T> protect;
+	private long protectedCapacity;
+
+	public SLRUPolicy () {
+		probation = new NodeList<T>();
+		protect = new NodeList<T>();
+		protectedCapacity = 0;
+	}
+
+	/**
+	 * Gives the protected segment 80% of the capacity. A smaller segment is trimmed as
+	 * entries are promoted.
+	 * @param capacity the capacity of the cache
+	 */
+	public void setCapacity (long capacity) {
+		protectedCapacity = capacity * 4 / 5;
+	}
+
+	/**
+	 * Moves the entry to the most recently used end of the protected segment.
+	 * @param node the entry that was hit
+	 */
+	public void recordHit (Node<T> node) {
+		if(node.queue == PROTECTED) {
+			protect.moveToFront(node);
+			return;
+		}
+		probation.remove(node); //promoted off probation
+		node.queue = PROTECTED;
+		protect.addFirst(node);
+		while(protect.size() > protectedCapacity) {
+			final Node<T> demoted = protect.pollLast(); //gets another go on probation
+			demoted.queue = PROBATION;
+			probation.addFirst(demoted);
+		}
+	}
+
+	/**
+	 * Adds the entry on probation.
+	 * @param node the new entry
+	 */
+	public void add (Node<T> node) {
+		node.queue = PROBATION;
+		probation.addFirst(node);
+	}
+
+	/**
+	 * Takes the least recently used probationary entry, or the least recently used
+	 * protected one if nothing is on probation.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	public Node<T> evict () {
+		return probation.isEmpty() ? protect.pollLast() : probation.pollLast();
+	}
+
+	/**
+	 * Takes the entry out of its segment.
+	 * @param node the entry that left
+	 */
+	public void remove (Node<T> node) {
+		(node.queue == PROTECTED ? protect : probation).remove(node);
+	}
+
+	/**
+	 * Iterates over the protected segment and then probation, each from the most to the
+	 * least recently used entry.
+	 */
+	public Iterator<Node<T>> iterator () {
+		return NodeList.concat(protect, probation);
+	}
+}
@@ -0,0 +1,22 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Turns values into bytes and back, for caches that keep their values outside of
+ * the Java heap or write them to disk.
+ */
+interface Serializer<U> {
+	/**
+	 * Returns the serialized form of the specified value.
+	 * @param value the value, never null
+	 * @return the bytes that represent the value
+	 */
+	byte[] serialize (U value);
+
+	/**
+	 * Rebuilds a value from its serialized form. Reads the bytes between the buffer's
+	 * position and limit, and must not keep a reference to the buffer.
+	 * @param bytes the bytes written by <tt>serialize</tt>
+	 * @return the value
+	 */
+	U deserialize (ByteBuffer bytes);
+}
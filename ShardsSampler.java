@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Estimates the miss-ratio curve of an LRU cache, the miss ratio it would have at every
+ * capacity up to a maximum, from the live stream of lookups. It uses fixed-size SHARDS
+ * (Waldspurger et al.): a key is sampled if the hash of the key falls below a threshold,
+ * so every lookup of a sampled key is seen and its reuse distance, the number of distinct
+ * sampled keys looked up since its last lookup, can be measured exactly and scaled up by
+ * the sampling rate. A lookup with reuse distance <tt>d</tt> hits in any LRU cache bigger
+ * than <tt>d</tt>.
+ * <p>
+ * At most <tt>maxSamples</tt> keys are tracked. When one more turns up, the threshold is
+ * lowered to drop the keys with the highest hashes and the histogram is rescaled to the new
+ * rate, so memory stays fixed however many keys pass through. Reuse distances are counted
+ * with a Fenwick tree over the time of each key's last lookup, in O(log maxSamples).
+ * Not thread-safe.
+ */
+public class ShardsSampler<T> {
+	final private static int MODULUS = 1 << 24;
+	final private static int BINS = 1024;
+	final private long binWidth;
+	final private int maxSamples;
+	final private double[] histogram; //by scaled reuse distance, the last bin is first lookups and beyond the maximum
+	final private Map<T, Sample<T>> samples;
+	final private PriorityQueue<Sample<T>> byHash; //highest hash first, the next to be dropped
+	final private int[] tree; //Fenwick tree, 1 at the time of each sample's last lookup
+	private int clock;
+	private int threshold;
+	private long references;
+
+	/**
+	 * @param maxCapacity the largest capacity to estimate the miss ratio for
+	 */
+	public ShardsSampler (long maxCapacity) {
+		this(maxCapacity, 8192);
+	}
+
+	/**
+	 * @param maxCapacity the largest capacity to estimate the miss ratio for
+	 * @param maxSamples the most keys to track; more is more accurate and takes more memory
+	 */
+	public ShardsSampler (long maxCapacity, int maxSamples) {
+		if(maxCapacity < 1) {
+			throw new IllegalArgumentException("maxCapacity must be at least 1");
+		}
+		if(maxSamples < 1) {
+			throw new IllegalArgumentException("maxSamples must be at least 1");
+		}
+		binWidth = Math.max(1, (maxCapacity + BINS - 1) / BINS);
+		this.maxSamples = maxSamples;
+		histogram = new double[BINS + 1];
+		samples = new HashMap<T, Sample<T>>(maxSamples * 2);
+		byHash = new PriorityQueue<Sample<T>>(maxSamples + 1, Comparator.comparingInt((Sample<T> s) -> s.hash).reversed());
+		tree = new int[2 * maxSamples + 2];
+		clock = 0;
+		threshold = MODULUS; //everything is sampled until there are too many keys
+		references = 0;
+	}
+
+	/**
+	 * Records a lookup of the specified key.
+	 * @param key the key
+	 */
+	public void record (T key) {
+		references++;
+		final int hash = hash(key);
+		if(hash >= threshold) {
+			return;
+		}
+		if(clock == tree.length - 1) {
+			compact();
+		}
+		Sample<T> sample = samples.get(key);
+		if(sample == null) {
+			histogram[BINS] += 1; //first lookup, a miss at any capacity
+			sample = new Sample<T>(key, hash);
+			samples.put(key, sample);
+			byHash.add(sample);
+		}
+		else {
+			final long distance = sum(clock - 1) - sum(sample.time); //distinct keys looked up since
+			final double scaled = distance * ((double) MODULUS / threshold);
+			histogram[(int) Math.min(BINS, (long) (scaled / binWidth))] += 1;
+			add(sample.time, -1);
+		}
+		sample.time = clock++;
+		add(sample.time, 1);
+		if(samples.size() > maxSamples) {
+			lowerThreshold();
+		}
+	}
+
+	/**
+	 * Returns the estimated miss ratio of an LRU cache of the specified capacity over every
+	 * lookup recorded so far. Capacities are rounded down to the histogram's resolution of
+	 * a 1024th of the maximum capacity.
+	 * @param capacity the capacity
+	 * @return the miss ratio, from 0 to 1, or 0 if nothing was recorded
+	 */
+	public double getMissRatio (long capacity) {
+		final double expected = references * getSamplingRate(); //SHARDS-adj: normalize by the expected sample count
+		if(expected == 0) {
+			return 0;
+		}
+		final int hitBins = (int) Math.min(BINS, capacity / binWidth);
+		double misses = 0;
+		for(int i = hitBins; i <= BINS; i++) {
+			misses += histogram[i];
+		}
+		return Math.max(0, Math.min(1, misses / expected));
+	}
+
+	/**
+	 * Returns the estimated miss ratio at each capacity the histogram can tell apart, up to
+	 * the maximum capacity.
+	 * @return a map from capacity to miss ratio
+	 */
+	public NavigableMap<Long, Double> getCurve () {
+		final NavigableMap<Long, Double> curve = new TreeMap<Long, Double>();
+		for(int i = 1; i <= BINS; i++) {
+			curve.put(i * binWidth, getMissRatio(i * binWidth));
+		}
+		return curve;
+	}
+
+	/**
+	 * Returns the fraction of keys currently being sampled.
+	 * @return the sampling rate, from 0 to 1
+	 */
+	public double getSamplingRate () {
+		return (double) threshold / MODULUS;
+	}
+
+	/**
+	 * Drops the samples with the highest hashes so that no more than <tt>maxSamples</tt>
+	 * remain, and scales the histogram down to the new, lower sampling rate.
+	 */
+	private void lowerThreshold() {
+		final int newThreshold = byHash.peek().hash;
+		while(!byHash.isEmpty() && byHash.peek().hash >= newThreshold) {
+			final Sample<T> dropped = byHash.poll();
+			samples.remove(dropped.key);
+			add(dropped.time, -1);
+		}
+		final double ratio = (double) newThreshold / threshold;
+		for(int i = 0; i <= BINS; i++) {
+			histogram[i] *= ratio;
+		}
+		threshold = newThreshold;
+	}
+
+	/**
+	 * Renumbers the samples' last lookup times from 0, keeping their order, once the clock
+	 * has run to the end of the tree.
+	 */
+	private void compact() {
+		final List<Sample<T>> inOrder = new ArrayList<Sample<T>>(samples.values());
+		inOrder.sort(Comparator.comparingInt((Sample<T> s) -> s.time));
+		Arrays.fill(tree, 0);
+		clock = 0;
+		for(Sample<T> sample : inOrder) {
+			sample.time = clock++;
+			add(sample.time, 1);
+		}
+	}
+
+	/**
+	 * Adds to the count at a time in the Fenwick tree.
+	 * @param time The time
+	 * @param delta What to add
+	 */
+	private void add(int time, int delta) {
+		for(int i = time + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Sums the counts at times 0 up to and including the specified time.
+	 * @param time The time, -1 for none
+	 * @return the sum
+	 */
+	private int sum(int time) {
+		int total = 0;
+		for(int i = time + 1; i > 0; i -= i & -i) {
+			total += tree[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Hashes a key to 24 bits, mixing well enough that any threshold picks a fair sample.
+	 * @param key The key
+	 * @return the hash, from 0 to 2^24 - 1
+	 */
+	private static int hash(Object key) {
+		long h = key == null ? 0 : key.hashCode();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) (h >>> 40);
+	}
+
+	/**
+	 * A sampled key, its hash and the time of its last lookup.
+	 */
+	private static class Sample<T> {
+		final public T key;
+		final public int hash;
+		public int time;
+		public Sample(T key, int hash) {
+			this.key = key;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.NavigableMap;
+import java.util.Random;
+
+/**
+ * Code to test a <tt>ShardsSampler</tt> implementation.
+ */
+public class ShardsSamplerTest {
+	/**
+	 * With every key sampled the curve is exact: a loop over 100 keys misses every time in
+	 * a cache smaller than the loop, and only on the first pass in a bigger one.
+	 */
+	@Test
+	public void loopCurveIsExact() {
+		final ShardsSampler<Integer> sampler = new ShardsSampler<Integer>(1024);
+		for(int pass = 0; pass < 10; pass++) {
+			for(int key = 0; key < 100; key++) {
+				sampler.record(key);
+			}
+		}
+		assertEquals(1.0, sampler.getSamplingRate(), 0);
+		assertEquals(1.0, sampler.getMissRatio(99), 1e-9);
+		assertEquals(0.1, sampler.getMissRatio(100), 1e-9);
+		final NavigableMap<Long,Double> curve = sampler.getCurve();
+		assertEquals(1024, curve.size());
+		assertEquals(0.1, curve.get(1024L), 1e-9);
+	}
+
+	/**
+	 * Tests that a sampled curve follows the miss ratio real LRU caches get on a skewed
+	 * trace with far more keys than the sampler tracks.
+	 */
+	@Test
+	public void sampledCurveMatchesLRUCache() {
+		final int[] capacities = {500, 2000, 8000};
+		final ShardsSampler<Integer> sampler = new ShardsSampler<Integer>(10000, 1024);
+		final LRUCache<Integer,Integer> sampled = new LRUCache<Integer,Integer>(key -> key, capacities[0]);
+		sampled.setSampler(sampler);
+		final Cache<Integer,Integer>[] caches = newCaches(capacities);
+		final Random random = new Random(7);
+		final int lookups = 400000;
+		for(int i = 0; i < lookups; i++) {
+			final int key = (int) (Math.pow(random.nextDouble(), 3) * 100000); //skewed towards small keys
+			sampled.get(key);
+			for(Cache<Integer,Integer> cache : caches) {
+				cache.get(key);
+			}
+		}
+		assertTrue(sampler.getSamplingRate() < 0.1);
+		for(int i = 0; i < capacities.length; i++) {
+			final double actual = (double) caches[i].getNumMisses() / lookups;
+			assertEquals(actual, sampler.getMissRatio(capacities[i]), 0.05);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Cache<Integer,Integer>[] newCaches(int[] capacities) {
+		final Cache<Integer,Integer>[] caches = (Cache<Integer,Integer>[]) new Cache<?,?>[capacities.length];
+		for(int i = 0; i < capacities.length; i++) {
+			caches[i] = new LRUCache<Integer,Integer>(key -> key, capacities[i]);
+		}
+		return caches;
+	}
+}
@@ -0,0 +1,220 @@
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects a cache's statistics. The counters are <tt>LongAdder</tt>s, which stripe their
+ * count over several cells so threads recording at once do not contend, and are 64 bits
+ * wide so they do not overflow on a long-running node. Load times also go into a
+ * <tt>LatencyHistogram</tt>.
+ * <p>
+ * A cache only records statistics after it is given a counter; until then its hit path
+ * does nothing extra. Loads and evictions are also reported as the JFR events
+ * <tt>cache.Load</tt> and <tt>cache.Eviction</tt>, and the counter can be registered as a
+ * <tt>CacheStatsMXBean</tt>.
+ */
+public class StatsCounter implements CacheStatsMXBean {
+	final private LongAdder hits;
+	final private LongAdder misses;
+	final private LongAdder evictions;
+	final private LongAdder loadSuccesses;
+	final private LongAdder loadFailures;
+	final private LongAdder totalLoadTime;
+	final private LatencyHistogram loadLatency;
+
+	public StatsCounter () {
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+		loadSuccesses = new LongAdder();
+		loadFailures = new LongAdder();
+		totalLoadTime = new LongAdder();
+		loadLatency = new LatencyHistogram();
+	}
+
+	/**
+	 * Records a lookup that found its key.
+	 */
+	public void recordHit () {
+		hits.increment();
+	}
+
+	/**
+	 * Records a lookup that did not find its key.
+	 */
+	public void recordMiss () {
+		misses.increment();
+	}
+
+	/**
+	 * Records an entry that was evicted or expired.
+	 * @param key the key of the entry
+	 * @param expired true if it expired, false if it was evicted to make room
+	 */
+	public void recordEviction (Object key, boolean expired) {
+		evictions.increment();
+		final CacheEvictionEvent event = new CacheEvictionEvent();
+		if(event.shouldCommit()) {
+			event.key = String.valueOf(key);
+			event.expired = expired;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records a provider call that returned.
+	 * @param nanos how long it took
+	 */
+	public void recordLoadSuccess (long nanos) {
+		loadSuccesses.increment();
+		totalLoadTime.add(nanos);
+		loadLatency.record(nanos);
+	}
+
+	/**
+	 * Records a provider call that threw.
+	 * @param nanos how long it took
+	 */
+	public void recordLoadFailure (long nanos) {
+		loadFailures.increment();
+		totalLoadTime.add(nanos);
+		loadLatency.record(nanos);
+	}
+
+	/**
+	 * Calls the provider for one key, timing the call and recording how it went.
+	 * @param provider the provider
+	 * @param key the key to load
+	 * @return the value the provider returned
+	 */
+	<T, U> U load (DataProvider<T, U> provider, T key) {
+		final CacheLoadEvent event = new CacheLoadEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		try {
+			final U value = provider.get(key);
+			recordLoadSuccess(System.nanoTime() - start);
+			return value;
+		}
+		catch(RuntimeException | Error e) {
+			recordLoadFailure(System.nanoTime() - start);
+			event.failed = true;
+			throw e;
+		}
+		finally {
+			event.end();
+			if(event.shouldCommit()) {
+				event.key = String.valueOf(key);
+				event.keys = 1;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Calls the provider for a batch of keys, timing the call and recording how it went.
+	 * The batch counts as one load.
+	 * @param provider the provider
+	 * @param keys the keys to load
+	 * @return the values the provider returned
+	 */
+	<T, U> Map<T, U> loadAll (DataProvider<T, U> provider, Collection<T> keys) {
+		final CacheLoadEvent event = new CacheLoadEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		try {
+			final Map<T, U> values = provider.getAll(keys);
+			recordLoadSuccess(System.nanoTime() - start);
+			return values;
+		}
+		catch(RuntimeException | Error e) {
+			recordLoadFailure(System.nanoTime() - start);
+			event.failed = true;
+			throw e;
+		}
+		finally {
+			event.end();
+			if(event.shouldCommit()) {
+				event.keys = keys.size();
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics recorded so far. Counters are read one after another while
+	 * other threads may still be recording, so they can be slightly out of step.
+	 * @return the snapshot
+	 */
+	public CacheStats snapshot () {
+		return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), loadSuccesses.sum(),
+				loadFailures.sum(), totalLoadTime.sum(), loadLatency.snapshot());
+	}
+
+	/**
+	 * Registers this counter with the platform MBean server.
+	 * @param name the name of the cache, which goes into the object name
+	 * @return the object name it was registered under
+	 * @throws IllegalStateException if it cannot be registered, for example because the name is taken
+	 */
+	public ObjectName registerMBean (String name) {
+		try {
+			final ObjectName objectName = new ObjectName("cache:type=CacheStats,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		}
+		catch(JMException e) {
+			throw new IllegalStateException("could not register the statistics of cache " + name, e);
+		}
+	}
+
+	public long getHitCount () {
+		return hits.sum();
+	}
+
+	public long getMissCount () {
+		return misses.sum();
+	}
+
+	public double getHitRate () {
+		final long hitCount = hits.sum();
+		final long requests = hitCount + misses.sum();
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	public long getEvictionCount () {
+		return evictions.sum();
+	}
+
+	public long getLoadSuccessCount () {
+		return loadSuccesses.sum();
+	}
+
+	public long getLoadFailureCount () {
+		return loadFailures.sum();
+	}
+
+	public long getTotalLoadTime () {
+		return totalLoadTime.sum();
+	}
+
+	public double getAverageLoadPenalty () {
+		final long loads = loadSuccesses.sum() + loadFailures.sum();
+		return loads == 0 ? 0.0 : (double) totalLoadTime.sum() / loads;
+	}
+
+	public long getLoadLatency50thPercentile () {
+		return loadLatency.getValueAtPercentile(50);
+	}
+
+	public long getLoadLatency99thPercentile () {
+		return loadLatency.getValueAtPercentile(99);
+	}
+
+	public long getLoadLatency999thPercentile () {
+		return loadLatency.getValueAtPercentile(99.9);
+	}
+}
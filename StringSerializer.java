@@ -0,0 +1,25 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A <tt>Serializer</tt> that stores strings as UTF-8.
+ */
+public class StringSerializer implements Serializer<String> {
+	/**
+	 * Returns the UTF-8 bytes of the specified string.
+	 * @param value the string
+	 * @return the UTF-8 bytes of the string
+	 */
+	public byte[] serialize (String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes a string from UTF-8 bytes.
+	 * @param bytes the UTF-8 bytes
+	 * @return the string
+	 */
+	public String deserialize (ByteBuffer bytes) {
+		return StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+	}
+}
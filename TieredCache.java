@@ -0,0 +1,296 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An implementation of <tt>Cache</tt> with two tiers: a least-recently-used (LRU) list on
+ * the heap, and behind it a log of serialized values in a memory-mapped file. An entry
+ * evicted from the heap is demoted to the end of the log instead of being thrown away,
+ * and a heap miss looks in the log before asking the provider; an entry found there is
+ * promoted back to the heap and its bytes in the log become dead.
+ * <p>
+ * The log is only ever appended to. When an append reaches the end of the file, the
+ * oldest entries are dropped until at least a quarter of the file is free, and the live
+ * records are slid down to the start of the file in log order, which also reclaims the
+ * dead bytes. The index of the log stays on the heap, so the file is only scratch space
+ * and is not read back after a restart. The file can be at most 2 GB.
+ */
+public class TieredCache<T, U> implements Cache<T, U>, Closeable {
+	final private static int HEADER = 4; //each record starts with the length of its value, -1 for null
+	final private Map<T, CachedObject> cache;
+	final private DataProvider<T, U> provider;
+	final private Serializer<U> serializer;
+	final private int capacity;
+	final private FileChannel channel;
+	final private MappedByteBuffer log;
+	final private LinkedHashMap<T, Record> diskIndex; //in log order, oldest first
+	private byte[] scratch;
+	private int tail;
+	private int liveBytes;
+	private int l1Misses;
+	private int l2Misses;
+	private CachedObject front;
+	private CachedObject back;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param serializer turns values into the bytes that are written to the file
+	 * @param capacity the exact number of (key,value) pairs to store on the heap
+	 * @param file the file to use for the second tier, created if it does not exist
+	 * @param diskBytes the size of the file
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public TieredCache (DataProvider<T, U> provider, Serializer<U> serializer, int capacity, Path file, int diskBytes) throws IOException {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		if(diskBytes < HEADER) {
+			throw new IllegalArgumentException("diskBytes must be at least " + HEADER);
+		}
+		cache = new HashMap<T, CachedObject>(capacity);
+		this.provider = provider;
+		this.serializer = serializer;
+		this.capacity = capacity;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		log = channel.map(FileChannel.MapMode.READ_WRITE, 0, diskBytes);
+		diskIndex = new LinkedHashMap<T, Record>();
+		scratch = new byte[64];
+		tail = 0;
+		liveBytes = 0;
+		l1Misses = 0;
+		l2Misses = 0;
+		front = null;
+		back = null;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		final CachedObject ret = cache.get(key);
+		if(ret != null) {
+			addToFront(evict(ret));
+			return ret.obj;
+		}
+		l1Misses++;
+		final Record record = diskIndex.remove(key);
+		final U value;
+		if(record != null) {
+			liveBytes -= record.size(); //promoted, or dropped if it cannot be read, so its bytes in the log are dead now
+			value = read(record);
+		}
+		else {
+			l2Misses++;
+			value = provider.get(key);
+		}
+		if(cache.size() >= capacity) {
+			demoteBack();
+		}
+		final CachedObject loaded = new CachedObject(key, value);
+		addToFront(loaded);
+		cache.put(key, loaded);
+		return value;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation, that is, the
+	 * number of times the provider was asked.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return l2Misses;
+	}
+
+	/**
+	 * Returns the number of lookups that were not found on the heap.
+	 * @return the number of heap misses since the object's instantiation.
+	 */
+	public int getL1Misses () {
+		return l1Misses;
+	}
+
+	/**
+	 * Returns the number of lookups that were found neither on the heap nor in the file.
+	 * @return the number of file misses since the object's instantiation.
+	 */
+	public int getL2Misses () {
+		return l2Misses;
+	}
+
+	/**
+	 * Returns the number of entries in the file.
+	 * @return the number of entries in the second tier
+	 */
+	public int getL2Size () {
+		return diskIndex.size();
+	}
+
+	/**
+	 * Closes the file. The cache must not be used afterwards.
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close () throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Moves the least recently used entry from the heap to the end of the log.
+	 */
+	private void demoteBack() {
+		final CachedObject bck = back;
+		cache.remove(bck.key);
+		evict(bck);
+		append(bck.key, bck.obj);
+	}
+
+	/**
+	 * Appends a value to the log, making room first if the end of the file is reached.
+	 * A value bigger than the whole file is dropped.
+	 * @param key The key
+	 * @param value The value
+	 */
+	private void append(T key, U value) {
+		final byte[] bytes = value == null ? null : serializer.serialize(value);
+		final Record record = new Record(tail, bytes == null ? -1 : bytes.length);
+		final int size = record.size();
+		if(size > log.capacity()) {
+			return;
+		}
+		if(tail + size > log.capacity()) {
+			makeRoom(size);
+			record.offset = tail;
+		}
+		log.putInt(tail, record.length);
+		if(bytes != null) {
+			final ByteBuffer out = log.duplicate();
+			out.position(tail + HEADER);
+			out.put(bytes);
+		}
+		tail += size;
+		liveBytes += size;
+		diskIndex.put(key, record);
+	}
+
+	/**
+	 * Drops the oldest records until the new one and a quarter of the file are free, then
+	 * compacts the rest, so the next compaction is at least a quarter of the file away.
+	 * @param size The size of the record about to be appended
+	 */
+	private void makeRoom(int size) {
+		final int target = log.capacity() - Math.max(size, log.capacity() / 4);
+		final Iterator<Record> oldest = diskIndex.values().iterator();
+		while(liveBytes > target) {
+			liveBytes -= oldest.next().size();
+			oldest.remove();
+		}
+		compact();
+	}
+
+	/**
+	 * Slides every live record down to the start of the file, keeping their order.
+	 */
+	private void compact() {
+		int position = 0;
+		for(Record record : diskIndex.values()) {
+			final int size = record.size();
+			if(record.offset != position) {
+				if(scratch.length < size) {
+					scratch = new byte[Math.max(size, scratch.length * 2)];
+				}
+				final ByteBuffer in = log.duplicate();
+				in.position(record.offset);
+				in.get(scratch, 0, size); //through a copy, since the old and new places may overlap
+				final ByteBuffer out = log.duplicate();
+				out.position(position);
+				out.put(scratch, 0, size);
+				record.offset = position;
+			}
+			position += size;
+		}
+		tail = position;
+	}
+
+	/**
+	 * Reads a value back from the log.
+	 * @param record Where the value is
+	 * @return the value
+	 */
+	private U read(Record record) {
+		if(record.length < 0) {
+			return null;
+		}
+		final ByteBuffer bytes = log.duplicate();
+		bytes.limit(record.offset + HEADER + record.length);
+		bytes.position(record.offset + HEADER);
+		return serializer.deserialize(bytes.slice());
+	}
+
+	/**
+	 * Adds the specified object to the front of the LinkedList.
+	 * @param x The CachedObject to add to the front of the list
+	 */
+	private void addToFront(CachedObject x) {
+		x.after = front;
+		x.before = null;
+		if(front != null) front.before = x;
+		front = x;
+		if(back == null) back = front;
+	}
+
+	/**
+	 * Removes the specified object from the LinkedList
+	 * @param x The object to remove from the list
+	 * @return The object that was removed
+	 */
+	private CachedObject evict(CachedObject x) {
+		final CachedObject newBefore = x.before;
+		final CachedObject newAfter = x.after;
+		if(newAfter != null) newAfter.before = newBefore;
+		else back = newBefore;
+		if(newBefore != null) newBefore.after = newAfter;
+		else front = newAfter;
+		return x;
+	}
+
+	/**
+	 * Inner class to hold an entry on the heap.
+	 */
+	private class CachedObject {
+		final public U obj;
+		final public T key;
+		public CachedObject before;
+		public CachedObject after;
+		public CachedObject(T key, U object) {
+			obj = object;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Where a value is in the log, and how long it is.
+	 */
+	private static class Record {
+		public int offset;
+		final public int length;
+		public Record(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+		/**
+		 * @return the number of bytes the record takes up in the log, header included
+		 */
+		public int size() {
+			return HEADER + Math.max(0, length);
+		}
+	}
+}
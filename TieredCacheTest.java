@@ -0,0 +1,132 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Code to test a <tt>TieredCache</tt> implementation.
+ */
+public class TieredCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Provider provider;
+	private Path file;
+	/**
+	 * Returns the key repeated <tt>key</tt> times, so the key picks the value's size.
+	 */
+	private static class Provider implements DataProvider<Integer,String> {
+		public int fetches = 0;
+		public String get(Integer key) {
+			fetches++;
+			final StringBuilder value = new StringBuilder();
+			for(int i = 0; i < key; i++) {
+				value.append((char) ('a' + key % 26));
+			}
+			return value.toString();
+		}
+	}
+
+	/**
+	 * Tests that entries evicted from the heap are found in the file instead of going back
+	 * to the provider, and that each tier counts its own misses.
+	 */
+	@Test
+	public void demotedEntriesAreServedFromDisk() throws IOException {
+		try(TieredCache<Integer,String> cache = new TieredCache<Integer,String>(provider, new StringSerializer(), 2, file, 1 << 16)) {
+			for(int key = 1; key <= 10; key++) {
+				assertEquals(provider.get(key), cache.get(key));
+			}
+			assertEquals(10, cache.getNumMisses());
+			assertEquals(8, cache.getL2Size()); //everything but the last two went to disk
+			for(int key = 1; key <= 10; key++) {
+				assertEquals(provider.get(key), cache.get(key));
+			}
+			assertEquals(10, cache.getL2Misses());
+			assertEquals(20, cache.getL1Misses()); //all but the last two were on disk, and 9 and 10 were pushed there
+			assertEquals(30, provider.fetches); //10 loads, plus the 20 calls the test made itself
+		}
+	}
+
+	/**
+	 * With a small file the oldest entries are dropped and the rest compacted, and the
+	 * values that survive still come back intact.
+	 */
+	@Test
+	public void compactionKeepsNewestEntries() throws IOException {
+		try(TieredCache<Integer,String> cache = new TieredCache<Integer,String>(provider, new StringSerializer(), 1, file, 1000)) {
+			for(int key = 100; key < 120; key++) {
+				cache.get(key); //each record takes 104 bytes, so at most 9 fit
+			}
+			assertTrue(cache.getL2Size() <= 9);
+			assertTrue(cache.getL2Size() >= 4);
+			final int misses = cache.getNumMisses();
+			assertEquals(provider.get(118), cache.get(118)); //the newest demoted entry survives
+			assertEquals(misses, cache.getNumMisses());
+			assertEquals(provider.get(100), cache.get(100)); //the oldest was dropped
+			assertEquals(misses + 1, cache.getNumMisses());
+			for(int pass = 0; pass < 5; pass++) {
+				for(int key = 100; key < 104; key++) {
+					assertEquals(provider.get(key), cache.get(key)); //promotions leave dead bytes to reclaim
+				}
+			}
+			assertEquals(misses + 4, cache.getNumMisses());
+		}
+	}
+
+	/**
+	 * Tests that null values survive the trip to disk.
+	 */
+	@Test
+	public void nullValuesAreDemoted() throws IOException {
+		final DataProvider<Integer,String> nulls = key -> key % 2 == 0 ? null : "" + key;
+		try(TieredCache<Integer,String> cache = new TieredCache<Integer,String>(nulls, new StringSerializer(), 1, file, 1 << 12)) {
+			cache.get(2);
+			cache.get(3);
+			assertNull(cache.get(2));
+			assertEquals("3", cache.get(3));
+			assertEquals(2, cache.getNumMisses());
+		}
+	}
+
+	/**
+	 * Tests that a record that cannot be read back is dropped from the log's live bytes as
+	 * well as its index, so a later compaction does not drop good records to make up for it.
+	 */
+	@Test
+	public void unreadableRecordFreesItsBytes() throws IOException {
+		final Serializer<String> serializer = new StringSerializer() {
+			public String deserialize(ByteBuffer bytes) {
+				if(bytes.remaining() == 20) {
+					throw new IllegalStateException("corrupt record");
+				}
+				return super.deserialize(bytes);
+			}
+		};
+		try(TieredCache<Integer,String> cache = new TieredCache<Integer,String>(provider, serializer, 1, file, 40)) {
+			cache.get(20);
+			cache.get(10); //20 goes to disk
+			try {
+				cache.get(20);
+				fail("expected the corrupt record to be reported");
+			}
+			catch(IllegalStateException e) {
+				assertEquals(0, cache.getL2Size());
+			}
+			cache.get(5); //10 goes to disk
+			cache.get(6); //5 does not fit at the end, so the log is compacted, keeping 10
+			assertEquals(2, cache.getL2Size());
+			cache.get(10);
+			assertEquals(4, cache.getL2Misses()); //10 came from disk
+		}
+	}
+
+	@Before
+	public void init() throws IOException {
+		provider = new Provider();
+		file = folder.newFile("l2.log").toPath();
+	}
+}
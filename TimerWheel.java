@@ -0,0 +1,153 @@
+/**
+ * A hierarchical timing wheel (Varghese and Lauck) that finds expired entries in amortized
+ * O(1) time. Each level is a ring of 64 buckets, and each level's buckets are 64 times as
+ * wide as the level below: about 1 ms, 67 ms, 4.3 s, 4.6 min and 4.9 h. A timer goes into
+ * the lowest level whose ring spans its delay, and as time passes the buckets that fall
+ * due are emptied: timers that are due expire, and the rest cascade down to a finer level.
+ * <p>
+ * Nothing runs in the background; the owner calls <tt>advance</tt> with the current time.
+ * Times are in nanoseconds, as from <tt>System.nanoTime</tt>.
+ */
+public class TimerWheel {
+	final private static int BUCKETS = 64;
+	final private static int[] SHIFTS = {20, 26, 32, 38, 44}; //log2 of each level's bucket width in ns
+	final private Timer[][] wheel;
+	private long nanos;
+
+	/**
+	 * @param now the current time, in nanoseconds
+	 */
+	public TimerWheel (long now) {
+		wheel = new Timer[SHIFTS.length][BUCKETS];
+		for(Timer[] level : wheel) {
+			for(int i = 0; i < BUCKETS; i++) {
+				level[i] = new Sentinel();
+			}
+		}
+		nanos = now;
+	}
+
+	/**
+	 * Adds a timer to the wheel, or moves it if it is already scheduled.
+	 * @param timer the timer, whose <tt>time</tt> is when it expires
+	 */
+	public void schedule (Timer timer) {
+		deschedule(timer);
+		final Timer sentinel = bucketFor(timer.time);
+		timer.nextTimer = sentinel;
+		timer.previousTimer = sentinel.previousTimer;
+		sentinel.previousTimer.nextTimer = timer;
+		sentinel.previousTimer = timer;
+	}
+
+	/**
+	 * Takes a timer off the wheel. Does nothing if it is not scheduled.
+	 * @param timer the timer
+	 */
+	public void deschedule (Timer timer) {
+		if(timer.nextTimer != null) {
+			timer.nextTimer.previousTimer = timer.previousTimer;
+			timer.previousTimer.nextTimer = timer.nextTimer;
+			timer.nextTimer = null;
+			timer.previousTimer = null;
+		}
+	}
+
+	/**
+	 * Moves the wheel forward to the specified time, expiring every timer that is due.
+	 * Cheap when no bucket boundary has been crossed since the last call.
+	 * @param now the current time, in nanoseconds
+	 */
+	public void advance (long now) {
+		final long previous = nanos;
+		final long elapsed = now - previous; //signed, so it stays right where nanoTime crosses zero or wraps
+		if(elapsed < 0) {
+			return; //time never runs backwards for the wheel
+		}
+		nanos = now;
+		for(int level = 0; level < SHIFTS.length; level++) {
+			final long offset = previous & ((1L << SHIFTS[level]) - 1); //how far into its bucket the wheel was
+			final long crossed = (offset + elapsed) >>> SHIFTS[level]; //bucket boundaries passed since
+			if(crossed == 0) {
+				break; //no boundary crossed here, so none crossed on the coarser levels either
+			}
+			final long previousTick = previous >>> SHIFTS[level]; //only its low bits are used
+			final long buckets = Math.min(crossed + 1, BUCKETS);
+			for(long i = 0; i < buckets; i++) {
+				expire(wheel[level][(int) ((previousTick + i) & (BUCKETS - 1))], now);
+			}
+		}
+	}
+
+	/**
+	 * Empties a bucket, expiring its due timers and rescheduling the others.
+	 * @param sentinel The head of the bucket
+	 * @param now The current time
+	 */
+	private void expire(Timer sentinel, long now) {
+		Timer timer = sentinel.nextTimer;
+		sentinel.nextTimer = sentinel; //detach the whole chain, rescheduled timers may land here again
+		sentinel.previousTimer = sentinel;
+		while(timer != sentinel) {
+			final Timer next = timer.nextTimer;
+			timer.nextTimer = null;
+			timer.previousTimer = null;
+			if(timer.time - now <= 0) {
+				timer.expire();
+			}
+			else {
+				schedule(timer); //cascade to a finer level
+			}
+			timer = next;
+		}
+	}
+
+	/**
+	 * Finds the bucket for a timer that expires at the specified time.
+	 * @param time When the timer expires
+	 * @return the head of the bucket
+	 */
+	private Timer bucketFor(long time) {
+		final long delay = Math.max(0, time - nanos);
+		for(int level = 0; level < SHIFTS.length - 1; level++) {
+			if(delay < (1L << SHIFTS[level + 1])) {
+				return wheel[level][(int) ((time >>> SHIFTS[level]) & (BUCKETS - 1))];
+			}
+		}
+		final int last = SHIFTS.length - 1;
+		final long capped = Math.min(delay, (BUCKETS - 1L) << SHIFTS[last]); //further out than the wheel spans
+		return wheel[last][(int) (((nanos + capped) >>> SHIFTS[last]) & (BUCKETS - 1))];
+	}
+
+	/**
+	 * Something that can be put on the wheel. Subclasses say what happens when it expires.
+	 */
+	public abstract static class Timer {
+		public long time;
+		Timer previousTimer;
+		Timer nextTimer;
+
+		/**
+		 * @return true if the timer is on a wheel
+		 */
+		public boolean isScheduled() {
+			return nextTimer != null;
+		}
+
+		/**
+		 * Called by <tt>advance</tt> once the timer is due. The timer is already off the wheel.
+		 */
+		protected abstract void expire();
+	}
+
+	/**
+	 * The head of a bucket's circular list.
+	 */
+	private static class Sentinel extends Timer {
+		public Sentinel() {
+			previousTimer = this;
+			nextTimer = this;
+		}
+		protected void expire() {}
+	}
+}
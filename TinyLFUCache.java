@@ -0,0 +1,149 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An implementation of <tt>Cache</tt> that puts a TinyLFU admission filter in front of
+ * least-recently-used (LRU) eviction, so that one-hit wonders and scans cannot push hot
+ * entries out.
+ * <p>
+ * New entries go into a small LRU admission window (1% of the capacity). When the window
+ * overflows, its least recently used entry becomes a candidate for the main LRU list, and
+ * only gets in if a <tt>FrequencySketch</tt> says it has been asked for more often than the
+ * main list's own least recently used entry, which is evicted to make room. Otherwise the
+ * candidate is the one evicted. Every lookup, hit or miss, is counted in the sketch.
+ */
+public class TinyLFUCache<T, U> implements Cache<T, U> {
+	final private Map<T, CachedObject> cache;
+	final private DataProvider<T, U> provider;
+	final private FrequencySketch<T> sketch;
+	final private LinkedList window;
+	final private LinkedList main;
+	final private int windowCapacity;
+	final private int mainCapacity;
+	private int timesMissed;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public TinyLFUCache (DataProvider<T, U> provider, int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		cache = new HashMap<T, CachedObject>(capacity);
+		this.provider = provider;
+		sketch = new FrequencySketch<T>(capacity);
+		window = new LinkedList();
+		main = new LinkedList();
+		windowCapacity = Math.max(1, capacity / 100);
+		mainCapacity = capacity - windowCapacity;
+		timesMissed = 0;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		sketch.increment(key);
+		final CachedObject ret = cache.get(key);
+		if(ret != null) {
+			final LinkedList list = ret.inWindow ? window : main;
+			list.addToFront(list.evict(ret));
+			return ret.obj;
+		}
+		final CachedObject loaded = new CachedObject(key, provider.get(key));
+		timesMissed++;
+		cache.put(key, loaded);
+		window.addToFront(loaded);
+		if(window.size > windowCapacity) {
+			admit(window.evict(window.back)); //the window overflowed, its back entry tries for the main list
+		}
+		return loaded.obj;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return timesMissed;
+	}
+
+	/**
+	 * Decides whether an entry leaving the admission window may enter the main list. It gets
+	 * in for free while there is room; after that it has to be more popular than the entry it
+	 * would evict.
+	 * @param candidate The entry that left the window
+	 */
+	private void admit(CachedObject candidate) {
+		candidate.inWindow = false;
+		if(main.size < mainCapacity) {
+			main.addToFront(candidate);
+			return;
+		}
+		final CachedObject victim = main.back;
+		if(victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+			cache.remove(main.evict(victim).key);
+			main.addToFront(candidate);
+		}
+		else {
+			cache.remove(candidate.key); //not popular enough, the main list stays as it is
+		}
+	}
+
+	/**
+	 * A doubly linked LRU list of CachedObjects, front being the most recently used.
+	 */
+	private class LinkedList {
+		public CachedObject front;
+		public CachedObject back;
+		public int size;
+
+		/**
+		 * Adds the specified object to the front of the list.
+		 * @param x The CachedObject to add to the front of the list
+		 */
+		public void addToFront(CachedObject x) {
+			x.after = front;
+			x.before = null;
+			if(front != null) front.before = x;
+			front = x;
+			if(back == null) back = front;
+			size++;
+		}
+
+		/**
+		 * Removes the specified object from the list.
+		 * @param x The object to remove from the list
+		 * @return The object that was removed
+		 */
+		public CachedObject evict(CachedObject x) {
+			final CachedObject newBefore = x.before;
+			final CachedObject newAfter = x.after;
+			if(newAfter != null) newAfter.before = newBefore;
+			else back = newBefore;
+			if(newBefore != null) newBefore.after = newAfter;
+			else front = newAfter;
+			size--;
+			return x;
+		}
+	}
+
+	/**
+	 * Inner class to hold the CachedObject, and which of the two lists it is on.
+	 */
+	private class CachedObject {
+		final public U obj;
+		final public T key;
+		public boolean inWindow;
+		public CachedObject before;
+		public CachedObject after;
+		public CachedObject(T key, U object) {
+			obj = object;
+			this.key = key;
+			inWindow = true;
+		}
+	}
+}
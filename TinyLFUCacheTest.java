@@ -0,0 +1,82 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Code to test a <tt>TinyLFUCache</tt> implementation and its <tt>FrequencySketch</tt>.
+ */
+public class TinyLFUCacheTest {
+	private Provider provider;
+	private static class Provider implements DataProvider<Integer,String> {
+		public int fetches = 0;
+		public String get(Integer key) {
+			fetches++;
+			return "" + key;
+		}
+	}
+
+	/**
+	 * Tests that the cache returns the right values and that hits do not refetch.
+	 */
+	@Test
+	public void doesNotRefetchUnnecessarily() {
+		final Cache<Integer,String> cache = new TinyLFUCache<Integer,String>(provider, 100);
+		for(int pass = 0; pass < 10; pass++) {
+			for(int i = 0; i < 100; i++) {
+				assertEquals("" + i, cache.get(i));
+			}
+		}
+		assertEquals(100, provider.fetches);
+		assertEquals(100, cache.getNumMisses());
+	}
+
+	/**
+	 * A scan of keys that are only used once, mixed in with traffic to a hot working set,
+	 * should not push the hot set out. With a plain <tt>LRUCache</tt> the scan keys in
+	 * between make nearly every hot lookup a miss.
+	 */
+	@Test
+	public void hotEntriesSurviveScan() {
+		final Cache<Integer,String> cache = new TinyLFUCache<Integer,String>(provider, 100);
+		final Cache<Integer,String> lru = new LRUCache<Integer,String>(provider, 100);
+		for(int pass = 0; pass < 5; pass++) {
+			for(int i = 0; i < 90; i++) {
+				cache.get(i); //the hot set
+				lru.get(i);
+			}
+		}
+		final int before = cache.getNumMisses();
+		final int lruBefore = lru.getNumMisses();
+		for(int i = 0; i < 2000; i++) {
+			assertEquals("" + (1000 + i), cache.get(1000 + i)); //the scan
+			assertEquals("" + (i % 90), cache.get(i % 90));
+			lru.get(1000 + i);
+			lru.get(i % 90);
+		}
+		assertTrue(cache.getNumMisses() - before < 2000 + 10); //only the scan misses
+		assertTrue(lru.getNumMisses() - lruBefore > 3900); //nearly everything misses
+	}
+
+	/**
+	 * Tests that the sketch tells popular keys apart from rare ones and that its counts age.
+	 */
+	@Test
+	public void sketchEstimatesAndAges() {
+		final FrequencySketch<Integer> sketch = new FrequencySketch<Integer>(64);
+		for(int i = 0; i < 10; i++) {
+			sketch.increment(7);
+		}
+		sketch.increment(8);
+		assertTrue(sketch.frequency(7) >= 10);
+		assertTrue(sketch.frequency(8) < sketch.frequency(7));
+		for(int i = 0; i < 640; i++) {
+			sketch.increment(10000 + i); //enough distinct keys to trigger aging
+		}
+		assertTrue(sketch.frequency(7) < 10);
+	}
+
+	@Before
+	public void init() {
+		provider = new Provider();
+	}
+}
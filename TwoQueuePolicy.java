@@ -0,0 +1,110 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q eviction (Johnson and Shasha). New entries go into a FIFO queue, <tt>A1in</tt>, that
+ * takes a quarter of the capacity; hits there change nothing. Entries pushed out of it are
+ * forgotten but their keys are remembered in a ghost queue, <tt>A1out</tt>, of up to half
+ * the capacity. A key that misses while it is still remembered there has proven it comes
+ * back, and goes straight into the main LRU list, <tt>Am</tt>.
+ */
+public class TwoQueuePolicy<T> implements EvictionPolicy<T> {
+	final private static int IN = 0;
+	final private static int MAIN = 1;
+	final private NodeList<T> in; //from newest to oldest
+	final private LinkedHashSet<T> out; //ghost keys, not in the cache, from oldest to newest
+	final private NodeList<T> main; //from most to least recently used
+	private long inCapacity;
+	private long outCapacity;
+	private boolean remembered; //whether the key being added was a ghost
+
+	public TwoQueuePolicy () {
+		in = new NodeList<T>();
+		out = new LinkedHashSet<T>();
+		main = new NodeList<T>();
+		inCapacity = 1;
+		outCapacity = 1;
+		remembered = false;
+	}
+
+	/**
+	 * Gives the FIFO queue a quarter of the capacity and the ghost queue half.
+	 * @param capacity the capacity of the cache
+	 */
+	public void setCapacity (long capacity) {
+		inCapacity = Math.max(1, capacity / 4);
+		outCapacity = Math.max(1, capacity / 2);
+	}
+
+	/**
+	 * Moves the entry to the most recently used end of the main list. Entries still in the
+	 * FIFO queue stay where they are.
+	 * @param node the entry that was hit
+	 */
+	public void recordHit (Node<T> node) {
+		if(node.queue == MAIN) {
+			main.moveToFront(node);
+		}
+	}
+
+	/**
+	 * Looks the key up among the ghosts, before making room may push it off the ghost queue.
+	 * @param key the key that missed
+	 */
+	public void prepareAdd (T key) {
+		remembered = out.remove(key);
+	}
+
+	/**
+	 * Adds the entry to the main list if its key was remembered as a ghost, and to the FIFO
+	 * queue otherwise.
+	 * @param node the new entry
+	 */
+	public void add (Node<T> node) {
+		if(remembered) {
+			node.queue = MAIN;
+			main.addFirst(node);
+		}
+		else {
+			node.queue = IN;
+			in.addFirst(node);
+		}
+		remembered = false;
+	}
+
+	/**
+	 * Takes the oldest entry of the FIFO queue if it is over its share, remembering its key
+	 * as a ghost, and the least recently used entry of the main list otherwise.
+	 * @return the entry to evict, or null if the policy holds none
+	 */
+	public Node<T> evict () {
+		if(in.size() > inCapacity || main.isEmpty()) {
+			final Node<T> victim = in.pollLast();
+			if(victim != null) {
+				out.add(victim.key);
+				if(out.size() > outCapacity) {
+					final Iterator<T> oldest = out.iterator();
+					oldest.next();
+					oldest.remove();
+				}
+			}
+			return victim;
+		}
+		return main.pollLast();
+	}
+
+	/**
+	 * Takes the entry out of its queue, without remembering its key.
+	 * @param node the entry that left
+	 */
+	public void remove (Node<T> node) {
+		(node.queue == MAIN ? main : in).remove(node);
+	}
+
+	/**
+	 * Iterates over the main list and then the FIFO queue.
+	 */
+	public Iterator<Node<T>> iterator () {
+		return NodeList.concat(main, in);
+	}
+}
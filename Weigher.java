@@ -0,0 +1,13 @@
+/**
+ * Tells a cache how much of its capacity an entry takes up, for example its size in bytes.
+ */
+interface Weigher<T, U> {
+	/**
+	 * Returns the weight of the specified entry. Must not be negative, and must not change
+	 * while the entry is cached.
+	 * @param key the key
+	 * @param value the value associated with the key
+	 * @return the weight of the entry
+	 */
+	int weigh (T key, U value);
+}
@@ -0,0 +1,20 @@
+/**
+ * A cache whose entries can also be written, not just loaded. Writes go to the cache's
+ * <tt>CacheWriter</tt> if it has one, so the backend stays in step with the cache.
+ */
+interface WritableCache<T, U> extends Cache<T, U> {
+	/**
+	 * Associates a value with a key, replacing any cached value without calling the
+	 * provider, and passes the write on to the cache's <tt>CacheWriter</tt> if it has one.
+	 * @param key the key
+	 * @param value the new value
+	 */
+	void put (T key, U value);
+
+	/**
+	 * Drops the cached value for a key, so the next <tt>get</tt> loads it again, and passes
+	 * the deletion on to the cache's <tt>CacheWriter</tt> if it has one.
+	 * @param key the key
+	 */
+	void invalidate (T key);
+}
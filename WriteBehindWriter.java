@@ -0,0 +1,299 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A <tt>CacheWriter</tt> that queues writes and passes them on to the real writer in the
+ * background, so callers of <tt>put</tt> never wait for the backend. Writes to a key that is
+ * already queued replace the queued one, so a key written many times between flushes
+ * reaches the backend once, with its latest value or as a deletion.
+ * <p>
+ * The queue is flushed as one <tt>writeAll</tt> and one <tt>deleteAll</tt> when it holds
+ * <tt>maxBatch</tt> keys, or <tt>delay</tt> after the first write that went into an empty
+ * queue, whichever comes first. Flushes run on the specified scheduler, one at a time. If a
+ * flush fails, its keys go back into the queue, unless they were written again since, and
+ * are tried again after another delay.
+ * <p>
+ * Until a write is flushed the backend still has the old value. Caches given this writer
+ * load through <tt>readThrough</tt>, which answers keys that are queued or being flushed
+ * from the queue, so an entry that is evicted or invalidated in the meantime is not
+ * reloaded with the old value. Other readers of the backend see the old value until the
+ * flush.
+ */
+public class WriteBehindWriter<T, U> implements CacheWriter<T, U>, Closeable {
+	final private CacheWriter<T, U> writer;
+	final private ScheduledExecutorService scheduler;
+	final private int maxBatch;
+	final private long delayNanos;
+	final private Object flushLock; //held for a whole flush, so batches reach the backend in order
+	private LinkedHashMap<T, Write<U>> queue; //guarded by this
+	private Map<T, Write<U>> flushing; //the batch being written, guarded by this
+	private ScheduledFuture<?> timer;
+	private boolean flushQueued;
+	private boolean closed;
+	private long coalesced;
+	private long flushes;
+	private int failures;
+	private Throwable lastFailure;
+
+	/**
+	 * @param writer the real writer
+	 * @param scheduler runs the flushes
+	 * @param maxBatch the most keys to queue before flushing
+	 * @param delay the longest a write waits in the queue
+	 * @param unit the unit of the delay
+	 */
+	public WriteBehindWriter (CacheWriter<T, U> writer, ScheduledExecutorService scheduler, int maxBatch, long delay, TimeUnit unit) {
+		if(maxBatch < 1) {
+			throw new IllegalArgumentException("maxBatch must be at least 1");
+		}
+		this.writer = writer;
+		this.scheduler = scheduler;
+		this.maxBatch = maxBatch;
+		delayNanos = unit.toNanos(delay);
+		flushLock = new Object();
+		queue = new LinkedHashMap<T, Write<U>>();
+		flushing = null;
+		timer = null;
+		flushQueued = false;
+		closed = false;
+		coalesced = 0;
+		flushes = 0;
+		failures = 0;
+		lastFailure = null;
+	}
+
+	/**
+	 * Queues a value to be written.
+	 * @param key the key
+	 * @param value the new value
+	 */
+	public void write (T key, U value) {
+		enqueue(key, new Write<U>(value, false));
+	}
+
+	/**
+	 * Queues a key to be deleted.
+	 * @param key the key
+	 */
+	public void delete (T key) {
+		enqueue(key, new Write<U>(null, true));
+	}
+
+	/**
+	 * Writes everything queued to the real writer now, on the caller's thread.
+	 */
+	public void flush () {
+		synchronized(flushLock) {
+			final Map<T, Write<U>> batch;
+			synchronized(this) {
+				if(timer != null) {
+					timer.cancel(false);
+					timer = null;
+				}
+				flushQueued = false;
+				if(queue.isEmpty()) {
+					return;
+				}
+				batch = queue;
+				queue = new LinkedHashMap<T, Write<U>>();
+				flushing = batch;
+			}
+			final Map<T, U> writes = new LinkedHashMap<T, U>();
+			final List<T> deletes = new ArrayList<T>();
+			for(Map.Entry<T, Write<U>> entry : batch.entrySet()) {
+				if(entry.getValue().deleted) {
+					deletes.add(entry.getKey());
+				}
+				else {
+					writes.put(entry.getKey(), entry.getValue().value);
+				}
+			}
+			Throwable failure = null;
+			try {
+				if(!writes.isEmpty()) writer.writeAll(writes);
+				if(!deletes.isEmpty()) writer.deleteAll(deletes);
+			}
+			catch(Throwable e) {
+				failure = e;
+				if(!(e instanceof RuntimeException)) {
+					throw e; //an Error still goes to the caller, once the batch is back in the queue
+				}
+			}
+			finally {
+				if(failure == null) {
+					synchronized(this) {
+						flushing = null;
+						flushes++;
+					}
+				}
+				else {
+					requeue(batch, failure);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flushes what is queued and stops taking writes. Does not shut down the scheduler. If
+	 * the final flush fails nothing retries it any more, so the failure is thrown; the
+	 * writes stay queued and <tt>flush</tt> can be called to try again.
+	 * @throws IllegalStateException if the queued writes could not be flushed, caused by
+	 * what the real writer threw
+	 */
+	public void close () {
+		synchronized(this) {
+			closed = true;
+		}
+		flush();
+		synchronized(this) {
+			if(!queue.isEmpty()) {
+				throw new IllegalStateException(queue.size() + " queued writes could not be flushed", lastFailure);
+			}
+		}
+	}
+
+	/**
+	 * Returns a provider that answers a key with its queued or flushing write if it has one,
+	 * null for a deletion, and asks the specified provider otherwise.
+	 * @param provider reads the backend
+	 * @return the provider to load through
+	 */
+	public DataProvider<T, U> readThrough (DataProvider<T, U> provider) {
+		return new DataProvider<T, U>() {
+			public U get(T key) {
+				final Write<U> write = pending(key);
+				return write == null ? provider.get(key) : write.value;
+			}
+			public Map<T, U> getAll(Collection<T> keys) {
+				final Map<T, U> values = new HashMap<T, U>(keys.size() * 2);
+				final List<T> rest = new ArrayList<T>();
+				for(T key : keys) {
+					final Write<U> write = pending(key);
+					if(write == null) {
+						rest.add(key);
+					}
+					else {
+						values.put(key, write.value);
+					}
+				}
+				if(!rest.isEmpty()) {
+					values.putAll(provider.getAll(rest));
+				}
+				return values;
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of writes that replaced a queued write to the same key, and so
+	 * never reached the backend.
+	 * @return the number of coalesced writes
+	 */
+	public synchronized long getCoalescedCount () {
+		return coalesced;
+	}
+
+	/**
+	 * Returns the number of batches written to the backend.
+	 * @return the number of successful flushes
+	 */
+	public synchronized long getFlushCount () {
+		return flushes;
+	}
+
+	/**
+	 * Returns the number of keys waiting to be written.
+	 * @return the size of the queue
+	 */
+	public synchronized int getQueued () {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of flushes that failed.
+	 * @return the number of failed flushes since the object's instantiation.
+	 */
+	public synchronized int getFailures () {
+		return failures;
+	}
+
+	/**
+	 * Returns what made the most recent flush fail.
+	 * @return the exception, or null if no flush has failed
+	 */
+	public synchronized Throwable getLastFailure () {
+		return lastFailure;
+	}
+
+	/**
+	 * Finds the write to a key that has not reached the backend yet.
+	 * @param key The key
+	 * @return the queued write, else the one being flushed, or null if there is neither
+	 */
+	private synchronized Write<U> pending(T key) {
+		final Write<U> queued = queue.get(key);
+		return queued != null || flushing == null ? queued : flushing.get(key);
+	}
+
+	/**
+	 * Queues a write, replacing any queued write to the same key, and makes sure a flush
+	 * is coming.
+	 * @param key The key
+	 * @param write The write
+	 */
+	private synchronized void enqueue(T key, Write<U> write) {
+		if(closed) {
+			throw new IllegalStateException("the writer is closed");
+		}
+		if(queue.put(key, write) != null) {
+			coalesced++;
+		}
+		if(queue.size() >= maxBatch) {
+			if(!flushQueued) {
+				flushQueued = true;
+				scheduler.execute(this::flush);
+			}
+		}
+		else if(timer == null) {
+			timer = scheduler.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Puts the writes of a failed flush back in the queue, behind nothing newer, and tries
+	 * again after another delay.
+	 * @param batch The writes that failed
+	 * @param error What went wrong
+	 */
+	private synchronized void requeue(Map<T, Write<U>> batch, Throwable error) {
+		failures++;
+		lastFailure = error;
+		for(Map.Entry<T, Write<U>> entry : batch.entrySet()) {
+			queue.putIfAbsent(entry.getKey(), entry.getValue()); //a newer write to the key wins
+		}
+		flushing = null;
+		if(timer == null && !closed) {
+			timer = scheduler.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * A queued write: a new value, or a deletion, whose value is null.
+	 */
+	private static class Write<U> {
+		final public U value;
+		final public boolean deleted;
+		public Write(U value, boolean deleted) {
+			this.value = value;
+			this.deleted = deleted;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Code to test a <tt>WriteBehindWriter</tt> implementation.
+ */
+public class WriteBehindWriterTest {
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	/**
+	 * Keeps every batch it was given, and fails the first few. Wakes up anyone waiting on it
+	 * whenever it takes a batch of writes.
+	 */
+	private static class RecordingWriter implements CacheWriter<Integer,String> {
+		final public List<Map<Integer,String>> writes = new ArrayList<Map<Integer,String>>();
+		final public List<List<Integer>> deletes = new ArrayList<List<Integer>>();
+		public int failuresLeft = 0;
+		public void write(Integer key, String value) {
+			fail("expected batches only");
+		}
+		public void delete(Integer key) {
+			fail("expected batches only");
+		}
+		public synchronized void writeAll(Map<Integer,String> entries) {
+			if(failuresLeft > 0) {
+				failuresLeft--;
+				throw new IllegalStateException("backend down");
+			}
+			writes.add(new HashMap<Integer,String>(entries));
+			notifyAll();
+		}
+		public synchronized void deleteAll(Collection<Integer> keys) {
+			deletes.add(new ArrayList<Integer>(keys));
+		}
+	}
+
+	/**
+	 * Tests that repeated writes to a key reach the backend once, with the latest value,
+	 * and that a full queue is flushed in one batch while the cache already has the values.
+	 */
+	@Test
+	public void coalescesAndFlushesWhenFull() throws Exception {
+		final RecordingWriter backend = new RecordingWriter();
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 3, 1, TimeUnit.HOURS);
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> "" + key, 10);
+		cache.setWriter(writer);
+		cache.put(1, "a");
+		cache.put(1, "b");
+		cache.invalidate(2);
+		cache.put(1, "c");
+		assertEquals("c", cache.get(1));
+		assertEquals(2, writer.getQueued());
+		assertEquals(2, writer.getCoalescedCount());
+		cache.put(3, "x"); //the third key fills the queue
+		waitForFlushes(writer, backend, 1);
+		synchronized(backend) {
+			assertEquals(1, backend.writes.size());
+			assertEquals("c", backend.writes.get(0).get(1));
+			assertEquals("x", backend.writes.get(0).get(3));
+			assertEquals(Arrays.asList(Arrays.asList(2)), backend.deletes);
+		}
+		assertEquals(0, writer.getQueued());
+		assertEquals(0, cache.getNumMisses());
+	}
+
+	/**
+	 * Tests that a write is flushed after the delay even if the queue never fills up, and
+	 * that a failed flush is tried again.
+	 */
+	@Test
+	public void flushesAfterDelayAndRetries() throws Exception {
+		final RecordingWriter backend = new RecordingWriter();
+		backend.failuresLeft = 1;
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 100, 20, TimeUnit.MILLISECONDS);
+		writer.write(1, "a");
+		writer.write(2, "b");
+		waitForFlushes(writer, backend, 1);
+		assertEquals(1, writer.getFailures());
+		assertTrue(writer.getLastFailure() instanceof IllegalStateException);
+		synchronized(backend) {
+			assertEquals(1, backend.writes.size());
+			assertEquals(2, backend.writes.get(0).size());
+		}
+	}
+
+	/**
+	 * Tests that closing flushes what is queued and refuses later writes.
+	 */
+	@Test
+	public void closeFlushes() {
+		final RecordingWriter backend = new RecordingWriter();
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 100, 1, TimeUnit.HOURS);
+		writer.write(1, "a");
+		writer.close();
+		assertEquals(1, backend.writes.size());
+		try {
+			writer.write(2, "b");
+			fail("expected a closed writer to refuse writes");
+		}
+		catch(IllegalStateException e) {
+			assertEquals(0, writer.getQueued());
+		}
+	}
+
+	/**
+	 * Tests that a key evicted or invalidated before its write is flushed is loaded from the
+	 * queue, not with the old value the backend still has.
+	 */
+	@Test
+	public void missesReadThroughTheQueue() {
+		final Map<Integer,String> stored = new HashMap<Integer,String>();
+		stored.put(1, "old");
+		stored.put(2, "old");
+		final CacheWriter<Integer,String> backend = new CacheWriter<Integer,String>() {
+			public void write(Integer key, String value) {
+				synchronized(stored) {
+					stored.put(key, value);
+				}
+			}
+			public void delete(Integer key) {
+				synchronized(stored) {
+					stored.remove(key);
+				}
+			}
+		};
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 100, 1, TimeUnit.HOURS);
+		final LRUCache<Integer,String> cache = new LRUCache<Integer,String>(key -> {
+			synchronized(stored) {
+				return stored.get(key);
+			}
+		}, 1);
+		cache.setWriter(writer);
+		cache.put(1, "new");
+		cache.invalidate(2);
+		assertNull(cache.get(2)); //deleted in the queue, and pushes 1 out
+		assertEquals("new", cache.get(1)); //evicted before its flush
+		assertEquals(2, cache.getNumMisses());
+		synchronized(stored) {
+			assertEquals("old", stored.get(1));
+		}
+		writer.flush();
+		synchronized(stored) {
+			assertEquals("new", stored.get(1));
+			assertFalse(stored.containsKey(2));
+		}
+	}
+
+	/**
+	 * Tests that closing reports a final flush that failed, instead of dropping the writes,
+	 * and that they can still be flushed afterwards.
+	 */
+	@Test
+	public void closeReportsFailedFlush() {
+		final RecordingWriter backend = new RecordingWriter();
+		backend.failuresLeft = 1;
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 100, 1, TimeUnit.HOURS);
+		writer.write(1, "a");
+		try {
+			writer.close();
+			fail("expected the failed flush to be reported");
+		}
+		catch(IllegalStateException e) {
+			assertEquals("backend down", e.getCause().getMessage());
+		}
+		assertEquals(1, writer.getQueued());
+		writer.flush();
+		assertEquals(0, writer.getQueued());
+		assertEquals("a", backend.writes.get(0).get(1));
+	}
+
+	/**
+	 * Tests that a batch whose writer throws an <tt>Error</tt> goes back in the queue, so
+	 * later flushes still write it.
+	 */
+	@Test
+	public void errorInWriterRequeuesTheBatch() {
+		final RecordingWriter backend = new RecordingWriter() {
+			private boolean failed = false;
+			public synchronized void writeAll(Map<Integer,String> entries) {
+				if(!failed) {
+					failed = true;
+					throw new AssertionError("backend broke");
+				}
+				super.writeAll(entries);
+			}
+		};
+		final WriteBehindWriter<Integer,String> writer = new WriteBehindWriter<Integer,String>(backend, scheduler, 100, 1, TimeUnit.HOURS);
+		writer.write(1, "a");
+		try {
+			writer.flush();
+			fail("expected the error to reach the caller");
+		}
+		catch(AssertionError e) {
+			assertEquals("backend broke", e.getMessage());
+		}
+		assertEquals(1, writer.getQueued());
+		assertEquals(1, writer.getFailures());
+		writer.flush();
+		assertEquals(0, writer.getQueued());
+		assertEquals("a", backend.writes.get(0).get(1));
+	}
+
+	/**
+	 * Waits until the backend has taken the specified number of batches of writes, and then
+	 * for the flush that handed it the last one to finish.
+	 * @param writer The writer
+	 * @param backend The backend it writes to
+	 * @param flushes The number of flushes to wait for, each with writes in it
+	 */
+	private void waitForFlushes(WriteBehindWriter<Integer,String> writer, RecordingWriter backend, int flushes) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		synchronized(backend) {
+			while(backend.writes.size() < flushes) {
+				final long left = deadline - System.nanoTime();
+				assertTrue("no flush before the deadline", left > 0);
+				TimeUnit.NANOSECONDS.timedWait(backend, left);
+			}
+		}
+		scheduler.submit(() -> {}).get(); //flushes run on the scheduler's only thread, so this waits out the last one
+		assertEquals(flushes, writer.getFlushCount());
+	}
+
+	@After
+	public void shutDown() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,72 @@
+import java.util.function.Function;
+
+/**
+ * Builds the caches under benchmark. JMH refuses benchmarks in the default package and
+ * named packages cannot see the caches, so the benchmarks reach them through this class
+ * by reflection and then only talk to the returned <tt>Function</tt>.
+ */
+public class CacheFactory {
+	final private static String VALUE = "value";
+	final private static DataProvider<Integer, String> PROVIDER = key -> VALUE;
+	final private static IntDataProvider<String> INT_PROVIDER = key -> VALUE;
+
+	/**
+	 * Creates an empty cache of the specified kind.
+	 * @param impl the implementation name: lru, int-lru, array-lru, tinylfu, clock, slru, 2q, arc, bug4, linkedhashmap, synchronized-lru, concurrent or buffered
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @return a function that calls the cache's <tt>get</tt>
+	 */
+	public static Function<Integer, String> create (String impl, int capacity) {
+		if(impl.equals("int-lru")) {
+			final IntLRUCache<String> cache = new IntLRUCache<String>(INT_PROVIDER, capacity);
+			return key -> cache.get(key.intValue()); //unboxing does not allocate
+		}
+		final Cache<Integer, String> cache = newCache(impl, capacity, PROVIDER);
+		if(impl.startsWith("synchronized-")) {
+			return key -> {
+				synchronized(cache) {
+					return cache.get(key);
+				}
+			};
+		}
+		return cache::get;
+	}
+
+	/**
+	 * Creates the underlying cache for an implementation name. <tt>int-lru</tt> only takes
+	 * <tt>int</tt> keys and is not available here.
+	 * @param impl the implementation name
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @param provider the data provider to consult for a cache miss
+	 * @return the cache
+	 */
+	static <K> Cache<K, String> newCache (String impl, int capacity, DataProvider<K, String> provider) {
+		switch(impl) {
+			case "lru":
+			case "synchronized-lru":
+				return new LRUCache<K, String>(provider, capacity);
+			case "array-lru":
+				return new ArrayLRUCache<K, String>(provider, capacity);
+			case "tinylfu":
+				return new TinyLFUCache<K, String>(provider, capacity);
+			case "clock":
+				return new LRUCache<K, String>(provider, capacity, new ClockPolicy<K>());
+			case "slru":
+				return new LRUCache<K, String>(provider, capacity, new SLRUPolicy<K>());
+			case "2q":
+				return new LRUCache<K, String>(provider, capacity, new TwoQueuePolicy<K>());
+			case "arc":
+				return new LRUCache<K, String>(provider, capacity, new ARCPolicy<K>());
+			case "bug4":
+				return new Bug4<K, String>(provider, capacity);
+			case "linkedhashmap":
+				return new LinkedHashMapCache<K, String>(provider, capacity);
+			case "concurrent":
+				return new ConcurrentLRUCache<K, String>(provider, capacity);
+			case "buffered":
+				return new BufferedLRUCache<K, String>(provider, capacity);
+			default:
+				throw new IllegalArgumentException("unknown cache implementation: " + impl);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays an access trace through several caches at once to compare hit ratios before
+ * changing the capacity or eviction policy in production. The trace is read once, a block
+ * of keys at a time, and every block is fed to each cache in turn, so traces of any length
+ * run in constant memory and each cache's time is measured over whole blocks.
+ * <p>
+ * Misses go to a stand-in provider that can spin for a fixed time to simulate the backend.
+ * <pre>
+ * java -cp target/benchmarks.jar CacheSimulator --trace access.log [--format text|binary|csv]
+ *     [--column 0] [--impl lru,arc,tinylfu] [--capacity 1000,10000,100000]
+ *     [--latency-us 0] [--limit 0]
+ * </pre>
+ */
+public class CacheSimulator {
+	final private static int BLOCK = 1 << 16;
+
+	/**
+	 * One cache under simulation and its running totals.
+	 */
+	private static class Run {
+		final public String impl;
+		final public int capacity;
+		final public Cache<Long, String> cache;
+		public long nanos;
+
+		public Run(String impl, int capacity, Cache<Long, String> cache) {
+			this.impl = impl;
+			this.capacity = capacity;
+			this.cache = cache;
+		}
+	}
+
+	public static void main (String[] args) throws IOException {
+		Path trace = null;
+		String format = "text";
+		int column = 0;
+		String[] impls = {"lru"};
+		String[] capacities = {"1000", "10000", "100000"};
+		long latencyNanos = 0;
+		long limit = 0;
+		for(int i = 0; i < args.length; i++) {
+			try {
+				switch(args[i]) {
+					case "--trace": trace = Paths.get(value(args, i)); break;
+					case "--format": format = value(args, i); break;
+					case "--column": column = Integer.parseInt(value(args, i)); break;
+					case "--impl": impls = value(args, i).split(","); break;
+					case "--capacity": capacities = value(args, i).split(","); break;
+					case "--latency-us": latencyNanos = Long.parseLong(value(args, i)) * 1000; break;
+					case "--limit": limit = Long.parseLong(value(args, i)); break;
+					default: usage("unknown option " + args[i]);
+				}
+			}
+			catch(NumberFormatException e) {
+				usage(args[i] + " needs a number, not " + args[i + 1]);
+			}
+			i++;
+		}
+		if(trace == null) {
+			usage("--trace is required");
+		}
+		final DataProvider<Long, String> provider = stallingProvider(latencyNanos);
+		final List<Run> runs = new ArrayList<Run>();
+		for(String impl : impls) {
+			for(String capacity : capacities) {
+				final int size = Integer.parseInt(capacity.trim());
+				runs.add(new Run(impl, size, CacheFactory.newCache(impl.trim(), size, provider)));
+			}
+		}
+		final long requests = replay(trace, format, column, limit, runs);
+		report(requests, runs);
+	}
+
+	/**
+	 * Streams the trace through every cache.
+	 * @param trace The trace file
+	 * @param format The trace format
+	 * @param column The key column, for csv
+	 * @param limit The most keys to replay, 0 for all of them
+	 * @param runs The caches
+	 * @return the number of keys replayed
+	 * @throws IOException if the trace cannot be read
+	 */
+	private static long replay(Path trace, String format, int column, long limit, List<Run> runs) throws IOException {
+		final long[] keys = new long[BLOCK];
+		final Long[] boxed = new Long[BLOCK]; //boxed once per block, not once per cache
+		long requests = 0;
+		try(TraceReader reader = TraceReader.open(trace, format, column)) {
+			int count;
+			while((count = reader.read(keys)) > 0) {
+				if(limit > 0 && requests + count > limit) {
+					count = (int) (limit - requests);
+				}
+				for(int i = 0; i < count; i++) {
+					boxed[i] = keys[i];
+				}
+				for(Run run : runs) {
+					final long start = System.nanoTime();
+					for(int i = 0; i < count; i++) {
+						run.cache.get(boxed[i]);
+					}
+					run.nanos += System.nanoTime() - start;
+				}
+				requests += count;
+				if(limit > 0 && requests >= limit) {
+					break;
+				}
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Prints one line per cache.
+	 * @param requests The number of keys replayed
+	 * @param runs The caches
+	 */
+	private static void report(long requests, List<Run> runs) {
+		System.out.printf("%,d requests%n", requests);
+		System.out.printf("%-16s %12s %14s %10s %14s%n", "impl", "capacity", "misses", "hit ratio", "ops/sec");
+		for(Run run : runs) {
+			final long misses = run.cache.getNumMisses();
+			final double hitRatio = requests == 0 ? 0 : 1.0 - (double) misses / requests;
+			final double opsPerSecond = run.nanos == 0 ? 0 : requests * 1e9 / run.nanos;
+			System.out.printf("%-16s %,12d %,14d %10.4f %,14.0f%n", run.impl, run.capacity, misses, hitRatio, opsPerSecond);
+		}
+	}
+
+	/**
+	 * Returns a provider that spins for the specified time on every call, like a backend
+	 * that takes that long to answer.
+	 * @param latencyNanos How long each call takes
+	 * @return the provider
+	 */
+	private static DataProvider<Long, String> stallingProvider(long latencyNanos) {
+		return key -> {
+			if(latencyNanos > 0) {
+				final long end = System.nanoTime() + latencyNanos;
+				while(System.nanoTime() - end < 0) {
+					Thread.onSpinWait();
+				}
+			}
+			return "value";
+		};
+	}
+
+	/**
+	 * Returns the value that follows an option, or prints how to run the simulator and exits
+	 * if the option is the last argument.
+	 * @param args The command line
+	 * @param i The index of the option
+	 * @return the option's value
+	 */
+	private static String value(String[] args, int i) {
+		if(i + 1 == args.length) {
+			usage(args[i] + " needs a value");
+		}
+		return args[i + 1];
+	}
+
+	/**
+	 * Prints how to run the simulator and exits.
+	 * @param problem What was wrong with the arguments
+	 */
+	private static void usage(String problem) {
+		System.err.println(problem);
+		System.err.println("usage: CacheSimulator --trace FILE [--format text|binary|csv] [--column N]"
+				+ " [--impl lru,arc,...] [--capacity 1000,10000,...] [--latency-us N] [--limit N]");
+		System.exit(2);
+	}
+}
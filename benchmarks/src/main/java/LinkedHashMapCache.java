@@ -0,0 +1,49 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Baseline <tt>Cache</tt> built on the JDK's access-ordered <tt>LinkedHashMap</tt>,
+ * used to put the hand-written LRU lists into perspective.
+ */
+public class LinkedHashMapCache<T, U> implements Cache<T, U> {
+	final private Map<T, U> cache;
+	final private DataProvider<T, U> provider;
+	private int timesMissed;
+
+	/**
+	 * @param provider the data provider to consult for a cache miss
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 */
+	public LinkedHashMapCache (DataProvider<T, U> provider, final int capacity) {
+		this.provider = provider;
+		cache = new LinkedHashMap<T, U>(capacity * 4 / 3 + 1, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<T, U> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * @param key the key
+	 * @return the value associated with the key
+	 */
+	public U get (T key) {
+		final U ret = cache.get(key); //moves the entry to the end of the access order
+		if(ret != null || cache.containsKey(key)) {
+			return ret;
+		}
+		timesMissed++;
+		final U loaded = provider.get(key);
+		cache.put(key, loaded);
+		return loaded;
+	}
+
+	/**
+	 * Returns the number of cache misses since the object's instantiation.
+	 * @return the number of cache misses since the object's instantiation.
+	 */
+	public int getNumMisses () {
+		return timesMissed;
+	}
+}
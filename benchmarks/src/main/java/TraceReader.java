@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams the keys of an access trace from a file, a block at a time, so a trace of any
+ * length is read in constant memory. Three formats are understood:
+ * <ul>
+ * <li><tt>text</tt> - one key per line; a line that is not a number is hashed to one</li>
+ * <li><tt>binary</tt> - big-endian 8-byte <tt>long</tt>s, nothing else</li>
+ * <li><tt>csv</tt> - comma separated, the key in the chosen column; a header line is skipped</li>
+ * </ul>
+ */
+abstract class TraceReader implements Closeable {
+	/**
+	 * Opens a trace.
+	 * @param file the trace file
+	 * @param format text, binary or csv
+	 * @param column the column that holds the key, for csv
+	 * @return the reader
+	 * @throws IOException if the file cannot be opened
+	 */
+	static TraceReader open (Path file, String format, int column) throws IOException {
+		switch(format) {
+			case "text":
+				return new TextReader(Files.newBufferedReader(file, StandardCharsets.UTF_8), -1);
+			case "csv":
+				return new TextReader(Files.newBufferedReader(file, StandardCharsets.UTF_8), column);
+			case "binary":
+				return new BinaryReader(new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)));
+			default:
+				throw new IllegalArgumentException("unknown trace format: " + format);
+		}
+	}
+
+	/**
+	 * Reads the next keys into the buffer.
+	 * @param keys the buffer to fill
+	 * @return the number of keys read, or -1 at the end of the trace
+	 * @throws IOException if the file cannot be read
+	 */
+	abstract int read (long[] keys) throws IOException;
+
+	/**
+	 * Reads keys one per line, either the whole line or one column of it.
+	 */
+	private static class TextReader extends TraceReader {
+		final private BufferedReader in;
+		final private int column;
+		private boolean firstLine;
+
+		public TextReader(BufferedReader in, int column) {
+			this.in = in;
+			this.column = column;
+			firstLine = true;
+		}
+
+		int read(long[] keys) throws IOException {
+			int count = 0;
+			String line;
+			while(count < keys.length && (line = in.readLine()) != null) {
+				final String field = column < 0 ? line.trim() : field(line, column);
+				if(field.isEmpty()) {
+					continue;
+				}
+				final boolean header = firstLine && column >= 0 && !isNumber(field);
+				firstLine = false;
+				if(!header) {
+					keys[count++] = toKey(field);
+				}
+			}
+			return count == 0 ? -1 : count;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Cuts one column out of a comma separated line without splitting the whole line.
+		 * @param line The line
+		 * @param column The column, counting from 0
+		 * @return the column's text, or an empty string if the line is too short
+		 */
+		private static String field(String line, int column) {
+			int start = 0;
+			for(int i = 0; i < column; i++) {
+				start = line.indexOf(',', start) + 1;
+				if(start == 0) {
+					return "";
+				}
+			}
+			final int end = line.indexOf(',', start);
+			return line.substring(start, end < 0 ? line.length() : end).trim();
+		}
+
+		/**
+		 * Turns a field into a key: numbers stand for themselves, anything else is hashed.
+		 * @param text The field
+		 * @return the key
+		 */
+		private static long toKey(String text) {
+			if(isNumber(text)) {
+				try {
+					return Long.parseLong(text);
+				}
+				catch(NumberFormatException e) {
+					//too big for a long
+				}
+			}
+			return hash(text);
+		}
+
+		/**
+		 * @param text The text
+		 * @return true if the text is made of decimal digits, with an optional minus sign
+		 */
+		private static boolean isNumber(String text) {
+			final int start = text.charAt(0) == '-' ? 1 : 0;
+			if(start == text.length()) {
+				return false;
+			}
+			for(int i = start; i < text.length(); i++) {
+				if(text.charAt(i) < '0' || text.charAt(i) > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Turns a key that is not a number into one, with a 64-bit FNV-1a hash.
+		 * @param text The key
+		 * @return the hash
+		 */
+		private static long hash(String text) {
+			long h = 0xcbf29ce484222325L;
+			for(int i = 0; i < text.length(); i++) {
+				h ^= text.charAt(i);
+				h *= 0x100000001b3L;
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * Reads big-endian longs.
+	 */
+	private static class BinaryReader extends TraceReader {
+		final private DataInputStream in;
+
+		public BinaryReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		int read(long[] keys) throws IOException {
+			int count = 0;
+			try {
+				while(count < keys.length) {
+					keys[count] = in.readLong();
+					count++;
+				}
+			}
+			catch(EOFException e) {
+				//end of the trace, a trailing partial long is ignored
+			}
+			return count == 0 ? -1 : count;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
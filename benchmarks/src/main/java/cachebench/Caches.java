@@ -0,0 +1,43 @@
+package cachebench;
+
+import java.util.function.Function;
+
+/**
+ * Bridge to the caches, which live in the default package and so cannot be named from
+ * here. Goes through <tt>CacheFactory</tt> by reflection once per trial; the returned
+ * function is called directly on the measured path.
+ */
+final class Caches {
+	private Caches() {}
+
+	/**
+	 * Creates an empty cache of the specified kind.
+	 * @param impl the implementation name understood by <tt>CacheFactory</tt>
+	 * @param capacity the exact number of (key,value) pairs to store in the cache
+	 * @return a function that calls the cache's <tt>get</tt>
+	 */
+	@SuppressWarnings("unchecked")
+	static Function<Integer, String> create(String impl, int capacity) {
+		try {
+			return (Function<Integer, String>) Class.forName("CacheFactory")
+				.getMethod("create", String.class, int.class)
+				.invoke(null, impl, capacity);
+		}
+		catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("could not create cache " + impl, e);
+		}
+	}
+
+	/**
+	 * Boxes a trace once up front so the measured path does not allocate keys.
+	 * @param keys the trace
+	 * @return the same keys, boxed
+	 */
+	static Integer[] box(int[] keys) {
+		final Integer[] boxed = new Integer[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			boxed[i] = keys[i];
+		}
+		return boxed;
+	}
+}
@@ -0,0 +1,68 @@
+package cachebench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Multi-threaded throughput of <tt>get</tt> on one shared cache. <tt>synchronized-lru</tt>
+ * is a plain <tt>LRUCache</tt> behind one global lock, the baseline the thread-safe caches
+ * have to beat. Change the thread count with <tt>-t</tt>; compare against <tt>-t 1</tt> to
+ * see how throughput scales with cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentBenchmark {
+	final private static int TRACE_LENGTH = 1 << 20;
+
+	@State(Scope.Benchmark)
+	public static class SharedCache {
+		@Param({"synchronized-lru", "concurrent", "buffered"})
+		String impl;
+
+		@Param({"1000", "100000"})
+		int capacity;
+
+		@Param({"UNIFORM", "ZIPFIAN", "SCAN", "LOOP"})
+		KeyPattern pattern;
+
+		Function<Integer, String> cache;
+		Integer[] keys;
+
+		@Setup
+		public void setUp() {
+			cache = Caches.create(impl, capacity);
+			keys = Caches.box(pattern.trace(capacity * 2, capacity, TRACE_LENGTH));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int index;
+
+		@Setup
+		public void setUp() {
+			index = (int) (Thread.currentThread().getId() * 7919); //each thread starts somewhere else in the trace
+		}
+	}
+
+	@Benchmark
+	public String get(SharedCache shared, Cursor cursor) {
+		return shared.cache.apply(shared.keys[cursor.index++ & (TRACE_LENGTH - 1)]);
+	}
+}
@@ -0,0 +1,57 @@
+package cachebench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of <tt>get</tt> when every lookup is a hit: the cache is filled with every key
+ * the trace can produce before measuring, so this is the cost of the map lookup plus the
+ * move to the front of the LRU list. Run with <tt>-prof gc</tt> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HitBenchmark {
+	final private static int TRACE_LENGTH = 1 << 20;
+
+	@Param({"lru", "int-lru", "array-lru", "bug4", "linkedhashmap"})
+	String impl;
+
+	@Param({"1000", "100000", "1000000"})
+	int capacity;
+
+	@Param({"UNIFORM", "ZIPFIAN", "SCAN", "LOOP"})
+	KeyPattern pattern;
+
+	private Function<Integer, String> cache;
+	private Integer[] keys;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		cache = Caches.create(impl, capacity);
+		keys = Caches.box(pattern.trace(capacity, capacity, TRACE_LENGTH));
+		for(Integer key : Caches.box(KeyPattern.SCAN.trace(capacity, capacity, capacity))) {
+			cache.apply(key); //every key in the trace is now cached
+		}
+	}
+
+	@Benchmark
+	public String hit() {
+		return cache.apply(keys[index++ & (TRACE_LENGTH - 1)]);
+	}
+}
@@ -0,0 +1,101 @@
+package cachebench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Key access patterns the benchmarks replay. Each pattern is turned into a fixed trace
+ * of keys up front so that generating keys is not part of what gets measured.
+ */
+public enum KeyPattern {
+	/** Every key in the key space is equally likely. */
+	UNIFORM {
+		int[] trace(int keySpace, int cacheSize, int length, Random random) {
+			final int[] keys = new int[length];
+			for(int i = 0; i < length; i++) {
+				keys[i] = random.nextInt(keySpace);
+			}
+			return keys;
+		}
+	},
+	/** A few keys are very hot and most are cold, with skew 0.99 as in YCSB. */
+	ZIPFIAN {
+		int[] trace(int keySpace, int cacheSize, int length, Random random) {
+			final double[] cdf = new double[keySpace];
+			double sum = 0;
+			for(int rank = 0; rank < keySpace; rank++) {
+				sum += 1.0 / Math.pow(rank + 1, ZIPF_SKEW);
+				cdf[rank] = sum;
+			}
+			final int[] keys = new int[length];
+			for(int i = 0; i < length; i++) {
+				int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+				if(rank < 0) {
+					rank = -rank - 1; //insertion point is the first rank whose cdf covers the draw
+				}
+				keys[i] = scramble(Math.min(rank, keySpace - 1), keySpace);
+			}
+			return keys;
+		}
+	},
+	/** One pass over the whole key space in order, then the next pass from the start. */
+	SCAN {
+		int[] trace(int keySpace, int cacheSize, int length, Random random) {
+			final int[] keys = new int[length];
+			final int start = random.nextInt(keySpace);
+			for(int i = 0; i < length; i++) {
+				keys[i] = (start + i) % keySpace;
+			}
+			return keys;
+		}
+	},
+	/**
+	 * A tight loop over a window slightly larger than the cache, LRU's worst case: every key
+	 * is evicted just before it comes round again. Capped at the key space.
+	 */
+	LOOP {
+		int[] trace(int keySpace, int cacheSize, int length, Random random) {
+			final int margin = Math.max(1, cacheSize / 100);
+			final int window = Math.max(1, Math.min(keySpace, cacheSize + margin));
+			final int[] keys = new int[length];
+			for(int i = 0; i < length; i++) {
+				keys[i] = i % window;
+			}
+			return keys;
+		}
+	};
+
+	final private static double ZIPF_SKEW = 0.99;
+
+	/**
+	 * Builds a trace of keys drawn from this pattern.
+	 * @param keySpace keys are drawn from 0 (inclusive) to keySpace (exclusive)
+	 * @param cacheSize the capacity of the cache the trace is for
+	 * @param length the number of keys in the trace
+	 * @param random the source of randomness
+	 * @return the trace
+	 */
+	abstract int[] trace(int keySpace, int cacheSize, int length, Random random);
+
+	/**
+	 * Builds a trace of keys drawn from this pattern with a fixed seed, so every run and
+	 * every implementation sees the same keys.
+	 * @param keySpace keys are drawn from 0 (inclusive) to keySpace (exclusive)
+	 * @param cacheSize the capacity of the cache the trace is for
+	 * @param length the number of keys in the trace
+	 * @return the trace
+	 */
+	public int[] trace(int keySpace, int cacheSize, int length) {
+		return trace(keySpace, cacheSize, length, new Random(42));
+	}
+
+	/**
+	 * Spreads Zipf ranks over the key space so the hot keys are not all neighbours.
+	 * @param rank the popularity rank
+	 * @param keySpace the size of the key space
+	 * @return the key for that rank
+	 */
+	private static int scramble(int rank, int keySpace) {
+		return (int) ((rank * 0x9E3779B1L) % keySpace);
+	}
+}
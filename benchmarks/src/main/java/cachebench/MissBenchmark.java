@@ -0,0 +1,57 @@
+package cachebench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of <tt>get</tt> when every lookup misses on a full cache: each call asks the
+ * (trivial) provider, evicts the back entry and links in a new one. The keys never repeat
+ * within a cache's lifetime, so the access pattern does not matter here. Run with
+ * <tt>-prof gc</tt> to see the allocation rate per eviction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MissBenchmark {
+	@Param({"lru", "int-lru", "array-lru", "bug4", "linkedhashmap"})
+	String impl;
+
+	@Param({"1000", "100000", "1000000"})
+	int capacity;
+
+	private Function<Integer, String> cache;
+	private Integer[] keys;
+	private int mask;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		cache = Caches.create(impl, capacity);
+		//the trace is at least twice the capacity, so a key is long gone by the time it comes round again
+		final int length = Integer.highestOneBit(capacity) << 2;
+		mask = length - 1;
+		keys = Caches.box(KeyPattern.SCAN.trace(length, length, length));
+		for(int i = 0; i < capacity; i++) {
+			cache.apply(keys[index++ & mask]); //start from a full cache
+		}
+	}
+
+	@Benchmark
+	public String missAndEvict() {
+		return cache.apply(keys[index++ & mask]);
+	}
+}
@@ -0,0 +1,53 @@
+package cachebench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded throughput of <tt>get</tt> over a key space twice the capacity, so the
+ * mix of hits and misses comes from the access pattern itself, the way it would in production.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixedBenchmark {
+	final private static int TRACE_LENGTH = 1 << 21;
+
+	@Param({"lru", "int-lru", "array-lru", "tinylfu", "clock", "slru", "2q", "arc", "bug4", "linkedhashmap"})
+	String impl;
+
+	@Param({"1000", "100000", "1000000"})
+	int capacity;
+
+	@Param({"UNIFORM", "ZIPFIAN", "SCAN", "LOOP"})
+	KeyPattern pattern;
+
+	private Function<Integer, String> cache;
+	private Integer[] keys;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		cache = Caches.create(impl, capacity);
+		keys = Caches.box(pattern.trace(capacity * 2, capacity, TRACE_LENGTH));
+	}
+
+	@Benchmark
+	public String get() {
+		return cache.apply(keys[index++ & (TRACE_LENGTH - 1)]);
+	}
+}
@@ -0,0 +1,102 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Code to test the trace formats <tt>CacheSimulator</tt> reads.
+ */
+public class TraceReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Numbers stand for themselves, blank lines are skipped and anything else is hashed, the
+	 * same text always to the same key.
+	 */
+	@Test
+	public void textTraceHashesWords() throws IOException {
+		final long[] keys = readAll(write("7\n\n-3\nabc\n 7 \nabc\n"), "text", 0);
+		assertEquals(5, keys.length);
+		assertEquals(7, keys[0]);
+		assertEquals(-3, keys[1]);
+		assertEquals(7, keys[3]);
+		assertEquals(keys[2], keys[4]);
+		assertNotEquals(7, keys[2]);
+	}
+
+	/**
+	 * A csv trace skips its header and takes the key from the chosen column; short lines
+	 * are skipped.
+	 */
+	@Test
+	public void csvTraceSkipsHeader() throws IOException {
+		final long[] keys = readAll(write("time,key,size\n1,10,5\n2,20,5\n3\n4,10,5\n"), "csv", 1);
+		assertArrayEquals(new long[] {10, 20, 10}, keys);
+	}
+
+	/**
+	 * A binary trace is read a block at a time, and a trailing partial long is ignored.
+	 */
+	@Test
+	public void binaryTraceReadsInBlocks() throws IOException {
+		final Path file = folder.newFile("trace.bin").toPath();
+		try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+			for(long key = 0; key < 10; key++) {
+				out.writeLong(key << 40);
+			}
+			out.writeInt(1);
+		}
+		try(TraceReader reader = TraceReader.open(file, "binary", 0)) {
+			final long[] block = new long[4];
+			assertEquals(4, reader.read(block));
+			assertEquals(3L << 40, block[3]);
+			assertEquals(4, reader.read(block));
+			assertEquals(2, reader.read(block));
+			assertEquals(9L << 40, block[1]);
+			assertEquals(-1, reader.read(block));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownFormat() throws IOException {
+		TraceReader.open(write("1\n"), "json", 0);
+	}
+
+	/**
+	 * Writes a text trace.
+	 * @param text The trace
+	 * @return the file it is in
+	 */
+	private Path write(String text) throws IOException {
+		final Path file = folder.newFile().toPath();
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * Reads a whole trace, in blocks smaller than it so reads carry on where they stopped.
+	 * @param file The trace
+	 * @param format The trace's format
+	 * @param column The column that holds the key, for csv
+	 * @return every key in the trace
+	 */
+	private static long[] readAll(Path file, String format, int column) throws IOException {
+		long[] keys = new long[0];
+		try(TraceReader reader = TraceReader.open(file, format, column)) {
+			final long[] block = new long[2];
+			int count;
+			while((count = reader.read(block)) > 0) {
+				keys = Arrays.copyOf(keys, keys.length + count);
+				System.arraycopy(block, 0, keys, keys.length - count, count);
+			}
+		}
+		return keys;
+	}
+}